@@ -47,11 +47,14 @@ import com.github.prasanthj.hll.HyperLogLog;
 public class HyperLogLogAdd {
 
   private static List<Long> hashcodes;
+  private static long[] hashcodesArray;
   static {
     hashcodes = new ArrayList<>();
+    hashcodesArray = new long[100];
     Random random = new Random(123);
     for (int i = 0; i < 100; i++) {
       hashcodes.add(random.nextLong());
+      hashcodesArray[i] = hashcodes.get(i);
     }
   }
 
@@ -69,6 +72,18 @@ public class HyperLogLogAdd {
     blackhole.consume(hll);
   }
 
+  @Benchmark
+  @OperationsPerInvocation(100)
+  public void testHLLAddAll(Blackhole blackhole) {
+    final HyperLogLog hll = HyperLogLog
+      .builder()
+      .setNumRegisterIndexBits(10)
+      .setEncoding(HyperLogLog.EncodingType.SPARSE)
+      .build();
+    hll.addAll(hashcodesArray);
+    blackhole.consume(hll);
+  }
+
   @Benchmark
   @OperationsPerInvocation(100)
   public void testHLLAddHive(Blackhole blackhole) {
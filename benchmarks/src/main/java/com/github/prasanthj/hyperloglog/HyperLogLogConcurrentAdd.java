@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HLLConcurrentDenseRegister;
+import com.github.prasanthj.hll.HyperLogLog;
+
+/**
+ * Compares many threads feeding one sketch through a lock-free
+ * HLLConcurrentDenseRegister against a lock around HyperLogLog.add().
+ * Throughput is reported per thread count, so run with -t to see scaling.
+ *
+ * Every add uses a new random hashcode and the registers are reset for each
+ * iteration, so registers are raised (with a CAS) at the rate of a real
+ * stream, instead of replaying hashcodes that are already at their max.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HyperLogLogConcurrentAdd {
+  private static final int NUM_HASHCODES = 1024;
+
+  private HLLConcurrentDenseRegister concurrentRegister;
+  private HyperLogLog lockedHll;
+
+  @State(Scope.Thread)
+  public static class ThreadHashcodes {
+    SplittableRandom random;
+
+    @Setup
+    public void setup() {
+      random = new SplittableRandom(Thread.currentThread().getId());
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    concurrentRegister = new HLLConcurrentDenseRegister(14);
+    lockedHll = HyperLogLog
+      .builder()
+      .setNumRegisterIndexBits(14)
+      .setEncoding(HyperLogLog.EncodingType.DENSE)
+      .build();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_HASHCODES)
+  public void testConcurrentRegisterAdd(ThreadHashcodes state, Blackhole blackhole) {
+    for (int i = 0; i < NUM_HASHCODES; i++) {
+      blackhole.consume(concurrentRegister.add(state.random.nextLong()));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_HASHCODES)
+  public void testLockedHLLAdd(ThreadHashcodes state) {
+    for (int i = 0; i < NUM_HASHCODES; i++) {
+      final long hashcode = state.random.nextLong();
+      synchronized (lockedHll) {
+        lockedHll.add(hashcode);
+      }
+    }
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogConcurrentAdd -t 1
+   *    $ java -jar target/benchmarks.jar HyperLogLogConcurrentAdd -t 8
+   *    $ java -jar target/benchmarks.jar HyperLogLogConcurrentAdd -t 32
+   *
+   * b) Via the main method, which sweeps powers of 2 up to the number of
+   *    available cores and the number of available cores
+   */
+  public static void main(String[] args) throws RunnerException {
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    int threads = 1;
+    while (true) {
+      Options opt = new OptionsBuilder()
+        .include(HyperLogLogConcurrentAdd.class.getSimpleName())
+        .threads(threads)
+        .build();
+
+      new Runner(opt).run();
+      if (threads == maxThreads) {
+        break;
+      }
+      threads = Math.min(threads * 2, maxThreads);
+    }
+  }
+}
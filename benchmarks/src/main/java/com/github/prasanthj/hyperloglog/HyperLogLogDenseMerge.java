@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HLLConstants;
+import com.github.prasanthj.hll.HLLDenseRegister;
+
+/**
+ * Rolls up p = 14 dense registers into one register, comparing the word at a
+ * time HLLDenseRegister.merge() against a byte at a time max loop. Also
+ * compares the histogram based getSumInversePow2() against a table lookup per
+ * register.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HyperLogLogDenseMerge {
+  private static final int P = 14;
+  private static final int NUM_SKETCHES = 64;
+  private static final int NUM_HASHCODES = 100_000;
+
+  private HLLDenseRegister[] registers;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+    registers = new HLLDenseRegister[NUM_SKETCHES];
+    for (int i = 0; i < registers.length; i++) {
+      registers[i] = new HLLDenseRegister(P);
+      for (int j = 0; j < NUM_HASHCODES; j++) {
+        registers[i].add(random.nextLong());
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_SKETCHES)
+  public void testMerge(Blackhole blackhole) {
+    HLLDenseRegister result = new HLLDenseRegister(P);
+    for (HLLDenseRegister register : registers) {
+      result.merge(register);
+    }
+    blackhole.consume(result.getNumZeroes());
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_SKETCHES)
+  public void testByteLoopMerge(Blackhole blackhole) {
+    byte[] result = new byte[1 << P];
+    int[] histogram = new int[Byte.MAX_VALUE + 1];
+    for (HLLDenseRegister register : registers) {
+      byte[] inRegister = register.getRegister();
+      Arrays.fill(histogram, 0);
+      for (int i = 0; i < inRegister.length; i++) {
+        final byte cb = result[i];
+        final byte ob = inRegister[i];
+        final byte max = ob > cb ? ob : cb;
+        result[i] = max;
+        histogram[max]++;
+      }
+    }
+    blackhole.consume(histogram[0]);
+  }
+
+  @Benchmark
+  public double testSumInversePow2() {
+    return registers[0].getSumInversePow2();
+  }
+
+  @Benchmark
+  public double testByteLoopSumInversePow2() {
+    double sum = 0;
+    for (byte b : registers[0].getRegister()) {
+      sum += HLLConstants.inversePow2Data[b];
+    }
+    return sum;
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogDenseMerge
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogDenseMerge.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HyperLogLog;
+
+/**
+ * Merge of many DENSE sketches to a single target with
+ * HyperLogLog.parallelMerge() on 1 to N worker threads, against a single
+ * threaded loop of merge().
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HyperLogLogParallelMerge {
+  private static final int NUM_SKETCHES = 2_000;
+
+  @Param({"1", "2", "4", "8", "16"})
+  public int threads;
+
+  private List<HyperLogLog> hlls;
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+    hlls = new ArrayList<>(NUM_SKETCHES);
+    for (int i = 0; i < NUM_SKETCHES; i++) {
+      HyperLogLog hll = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+          .build();
+      for (int j = 0; j < 10_000; j++) {
+        hll.addLong(random.nextLong());
+      }
+      hlls.add(hll);
+    }
+    pool = new ForkJoinPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public long testParallelMerge() {
+    HyperLogLog result = HyperLogLog.builder().build();
+    result.parallelMerge(hlls, pool);
+    return result.count();
+  }
+
+  @Benchmark
+  public long testMerge() {
+    HyperLogLog result = HyperLogLog.builder().build();
+    for (HyperLogLog hll : hlls) {
+      result.merge(hll);
+    }
+    return result.count();
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogParallelMerge
+   *    $ java -jar target/benchmarks.jar HyperLogLogParallelMerge.testParallelMerge -p threads=1,64
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogParallelMerge.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
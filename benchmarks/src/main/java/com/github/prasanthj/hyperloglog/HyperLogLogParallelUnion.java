@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HyperLogLog;
+
+/**
+ * Union of many sketches with HyperLogLog.parallelUnion() on 1 to N worker
+ * threads, against a single threaded loop of merge(). Sketches are a mix of
+ * small SPARSE and large DENSE sketches, as in rollups of per-user sketches.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HyperLogLogParallelUnion {
+  private static final int NUM_SKETCHES = 20_000;
+
+  @Param({"1", "2", "4", "8", "16"})
+  public int threads;
+
+  private List<HyperLogLog> hlls;
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+    hlls = new ArrayList<>(NUM_SKETCHES);
+    for (int i = 0; i < NUM_SKETCHES; i++) {
+      HyperLogLog hll = HyperLogLog.builder().build();
+      // 1 in 10 sketches is DENSE
+      final int size = i % 10 == 0 ? 10_000 : 1 + random.nextInt(100);
+      for (int j = 0; j < size; j++) {
+        hll.addLong(random.nextLong());
+      }
+      hlls.add(hll);
+    }
+    pool = new ForkJoinPool(threads);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public long testParallelUnion() {
+    return HyperLogLog.parallelUnion(hlls, pool).count();
+  }
+
+  @Benchmark
+  public long testMerge() {
+    HyperLogLog result = HyperLogLog.builder().build();
+    for (HyperLogLog hll : hlls) {
+      result.merge(hll);
+    }
+    return result.count();
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogParallelUnion
+   *    $ java -jar target/benchmarks.jar HyperLogLogParallelUnion.testParallelUnion -p threads=1,64
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogParallelUnion.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HyperLogLog;
+
+/**
+ * Sweeps the sparse temp list size against add throughput. Smaller temp lists
+ * flush more often, larger temp lists cost more memory per sketch.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HyperLogLogSparseAdd {
+  // stays below the encoding switch threshold for p = 14 so that all adds go to
+  // the sparse register
+  private static final int NUM_HASHCODES = 2000;
+
+  @Param({"64", "256", "1024", "4096"})
+  public int tempListSize;
+
+  private long[] hashcodes;
+
+  @Setup
+  public void setup() {
+    hashcodes = new long[NUM_HASHCODES];
+    Random random = new Random(123);
+    for (int i = 0; i < hashcodes.length; i++) {
+      hashcodes[i] = random.nextLong();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_HASHCODES)
+  public void testSparseAdd(Blackhole blackhole) {
+    final HyperLogLog hll = HyperLogLog
+      .builder()
+      .setNumRegisterIndexBits(14)
+      .setEncoding(HyperLogLog.EncodingType.SPARSE)
+      .setSparseTempListSize(tempListSize)
+      .build();
+    for (long hashcode : hashcodes) {
+      hll.add(hashcode);
+    }
+    blackhole.consume(hll.count());
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line:
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogSparseAdd
+   *    $ java -jar target/benchmarks.jar HyperLogLogSparseAdd -p tempListSize=128,512,2048
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogSparseAdd.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
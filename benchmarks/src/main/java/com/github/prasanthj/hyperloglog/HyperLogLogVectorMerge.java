@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 Prasanth Jayachandran
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.prasanthj.hyperloglog;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.prasanthj.hll.HLLDenseRegister;
+
+/**
+ * Compares the scalar and the Vector API dense register loops. Both run the
+ * same code, the scalar fork disables the vector loops with -Dhll.vectorize=false.
+ * "empty" rolls up sketches into a new register, "saturated" merges them into a
+ * register that already contains all of them, as in long running rollups.
+ *
+ * Requires JDK 17+.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HyperLogLogVectorMerge {
+  private static final int NUM_SKETCHES = 32;
+
+  @Param({"10", "12", "14", "16"})
+  public int p;
+
+  @Param({"empty", "saturated"})
+  public String target;
+
+  private HLLDenseRegister[] registers;
+  private HLLDenseRegister saturated;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(123);
+    registers = new HLLDenseRegister[NUM_SKETCHES];
+    saturated = new HLLDenseRegister(p);
+    for (int i = 0; i < registers.length; i++) {
+      registers[i] = new HLLDenseRegister(p);
+      // 10 values per register so that most registers are set
+      for (int j = 0; j < (10 << p); j++) {
+        registers[i].add(random.nextLong());
+      }
+      saturated.merge(registers[i]);
+    }
+  }
+
+  private void merge(Blackhole blackhole) {
+    HLLDenseRegister result = target.equals("saturated") ? saturated : new HLLDenseRegister(p);
+    for (HLLDenseRegister register : registers) {
+      result.merge(register);
+    }
+    blackhole.consume(result.getNumZeroes());
+  }
+
+  private void histogram(Blackhole blackhole) {
+    HLLDenseRegister result = new HLLDenseRegister(p);
+    result.setRegister(registers[0].getRegister());
+    blackhole.consume(result.getSumInversePow2());
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Dhll.vectorize=false")
+  @OperationsPerInvocation(NUM_SKETCHES)
+  public void testScalarMerge(Blackhole blackhole) {
+    merge(blackhole);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+  @OperationsPerInvocation(NUM_SKETCHES)
+  public void testVectorMerge(Blackhole blackhole) {
+    merge(blackhole);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = "-Dhll.vectorize=false")
+  public void testScalarHistogram(Blackhole blackhole) {
+    histogram(blackhole);
+  }
+
+  @Benchmark
+  @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+  public void testVectorHistogram(Blackhole blackhole) {
+    histogram(blackhole);
+  }
+
+  /*
+   * ============================== HOW TO RUN THIS TEST: ====================================
+   *
+   * You can run this test:
+   *
+   * a) Via the command line (with JDK 17+):
+   *    $ mvn clean install
+   *    $ java -jar target/benchmarks.jar HyperLogLogVectorMerge
+   *    $ java -jar target/benchmarks.jar HyperLogLogVectorMerge -p p=14 -p target=saturated
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+      .include(HyperLogLogVectorMerge.class.getSimpleName())
+      .build();
+
+    new Runner(opt).run();
+  }
+}
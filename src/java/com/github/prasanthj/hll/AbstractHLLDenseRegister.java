@@ -0,0 +1,272 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import java.util.Arrays;
+
+/**
+ * Base class for DENSE registers. Implementations only decide how the 2^p
+ * register values are stored. Adding hashcodes, the register value histogram
+ * used for estimation and merging are common to all of them.
+ */
+public abstract class AbstractHLLDenseRegister implements HLLRegister {
+
+  // number of registers for each register value. Maintained on every register
+  // update so that the number of zeroes and the sum of inverse powers of 2
+  // required for estimation do not need a pass over the registers.
+  protected final int[] histogram = new int[Byte.MAX_VALUE + 1];
+
+  // max value stored in registered is cached to determine the bit width for
+  // bit packing
+  protected int maxRegisterValue;
+
+  // number of register bits
+  protected final int p;
+
+  // m = 2^p
+  protected final int m;
+
+  protected AbstractHLLDenseRegister(int p, boolean bitPack) {
+    this.p = p;
+    this.m = 1 << p;
+    this.histogram[0] = m;
+    this.maxRegisterValue = 0;
+    if (bitPack == false) {
+      this.maxRegisterValue = 0xff;
+    }
+  }
+
+  /**
+   * @param idx
+   *          - register index
+   * @return register value
+   */
+  public abstract byte get(int idx);
+
+  /**
+   * Stores the register value without any checks. Callers are responsible for
+   * maintaining the histogram and max register value.
+   * @param idx
+   *          - register index
+   * @param value
+   *          - register value
+   */
+  protected abstract void put(int idx, byte value);
+
+  public boolean add(long hashcode) {
+
+    // LSB p bits
+    final int registerIdx = (int) (hashcode & (m - 1));
+
+    // MSB 64 - p bits
+    final long w = hashcode >>> p;
+
+    // longest run of trailing zeroes
+    final int lr = Long.numberOfTrailingZeros(w) + 1;
+    return set(registerIdx, (byte) lr);
+  }
+
+  // this is a lossy invert of the function above, which produces a hashcode
+  // which collides with the current winner of the register (we lose all higher
+  // bits, but we get all bits useful for lesser p-bit options)
+
+  // +-------------|-------------+
+  // |xxxx100000000|1000000000000|  (lr=9 + idx=1024)
+  // +-------------|-------------+
+  //                \
+  // +---------------|-----------+
+  // |xxxx10000000010|00000000000|  (lr=2 + idx=0)
+  // +---------------|-----------+
+
+  // This shows the relevant bits of the original hash value
+  // and how the conversion is moving bits from the index value
+  // over to the leading zero computation
+
+  public void extractLowBitsTo(HLLRegister dest) {
+    for (int idx = 0; idx < m; idx++) {
+      byte lr = get(idx); // this can be a max of 65, never > 127
+      if (lr != 0) {
+        dest.add((long) ((1 << (p + lr - 1)) | idx));
+      }
+    }
+  }
+
+  public boolean set(int idx, byte value) {
+    boolean updated = false;
+    if (idx < m) {
+      final byte current = get(idx);
+      if (value > current) {
+
+        // update max register value
+        if (value > maxRegisterValue) {
+          maxRegisterValue = value;
+        }
+
+        // set register value and update the register value histogram
+        histogram[current]--;
+        histogram[value]++;
+        put(idx, value);
+
+        updated = true;
+      }
+    }
+    return updated;
+  }
+
+  /**
+   * Merge registers from any dense register of the same size. Implementations
+   * override this for faster merges of their own type.
+   * @param hllRegister
+   *          - register to be merged
+   */
+  public void merge(HLLRegister hllRegister) {
+    if (hllRegister instanceof AbstractHLLDenseRegister) {
+      AbstractHLLDenseRegister other = (AbstractHLLDenseRegister) hllRegister;
+      checkSameSize(other);
+      for (int i = 0; i < m; i++) {
+        final byte ob = other.get(i);
+        if (ob != 0) {
+          set(i, ob);
+        }
+      }
+
+      // update max register value
+      if (other.getMaxRegisterValue() > maxRegisterValue) {
+        maxRegisterValue = other.getMaxRegisterValue();
+      }
+    } else {
+      throw new IllegalArgumentException("Specified register is not instance of HLLDenseRegister");
+    }
+  }
+
+  protected void checkSameSize(AbstractHLLDenseRegister other) {
+    // merge only if the register length matches
+    if (m != other.m) {
+      throw new IllegalArgumentException(
+          "The size of register sets of HyperLogLogs to be merged does not match.");
+    }
+  }
+
+  /**
+   * Recomputes histogram from register values. Used by implementations that
+   * update register values in bulk.
+   */
+  protected void rebuildHistogram() {
+    Arrays.fill(histogram, 0);
+    for (int i = 0; i < m; i++) {
+      histogram[get(i)]++;
+    }
+  }
+
+  public int size() {
+    return m;
+  }
+
+  public int getP() {
+    return p;
+  }
+
+  public int getNumZeroes() {
+    return histogram[0];
+  }
+
+  public int getMaxRegisterValue() {
+    return maxRegisterValue;
+  }
+
+  /**
+   * Updates max register value as merge() does for a register with the
+   * specified max register value (0xff if bit packing is disabled).
+   */
+  void mergeMaxRegisterValue(int otherMaxRegisterValue) {
+    if (otherMaxRegisterValue > maxRegisterValue) {
+      maxRegisterValue = otherMaxRegisterValue;
+    }
+  }
+
+  public double getSumInversePow2() {
+    double sum = 0;
+    for (int i = 0; i < histogram.length; i++) {
+      if (histogram[i] != 0) {
+        sum += histogram[i] * HLLConstants.inversePow2Data[i];
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return register values, one byte per register. Implementations that do
+   *         not store one byte per register return a copy.
+   */
+  public byte[] getRegister() {
+    byte[] register = new byte[m];
+    for (int i = 0; i < m; i++) {
+      register[i] = get(i);
+    }
+    return register;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(getClass().getSimpleName());
+    sb.append(" - ");
+    sb.append("p: ");
+    sb.append(p);
+    sb.append(" numZeroes: ");
+    sb.append(getNumZeroes());
+    sb.append(" maxRegisterValue: ");
+    sb.append(maxRegisterValue);
+    return sb.toString();
+  }
+
+  public String toExtendedString() {
+    return toString() + " register: " + Arrays.toString(getRegister());
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof AbstractHLLDenseRegister)) {
+      return false;
+    }
+    AbstractHLLDenseRegister other = (AbstractHLLDenseRegister) obj;
+    if (m != other.m || getNumZeroes() != other.getNumZeroes()
+        || maxRegisterValue != other.maxRegisterValue) {
+      return false;
+    }
+    for (int i = 0; i < m; i++) {
+      if (get(i) != other.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hashcode = 0;
+    hashcode += 31 * getNumZeroes();
+    hashcode += 31 * maxRegisterValue;
+    // same as Arrays.hashCode() of register values
+    int registerHash = 1;
+    for (int i = 0; i < m; i++) {
+      registerHash = 31 * registerHash + get(i);
+    }
+    hashcode += registerHash;
+    return hashcode;
+  }
+}
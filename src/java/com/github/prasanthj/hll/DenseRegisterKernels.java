@@ -0,0 +1,91 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+/**
+ * <pre>
+ * Loops over all registers of HLLDenseRegister. The scalar implementation is
+ * used by default. On JDK 17+ the multi-release jar also contains an
+ * implementation using the incubating Vector API, which is used when the
+ * jdk.incubator.vector module is available, i.e. the JVM is started with
+ * --add-modules jdk.incubator.vector.
+ *
+ * Set the system property hll.vectorize=false to always use the scalar
+ * implementation.
+ * </pre>
+ */
+abstract class DenseRegisterKernels {
+  private static final String VECTOR_KERNELS_CLASS =
+      "com.github.prasanthj.hll.VectorDenseRegisterKernels";
+
+  static final DenseRegisterKernels INSTANCE = load();
+
+  private static DenseRegisterKernels load() {
+    if (Boolean.parseBoolean(System.getProperty("hll.vectorize", "true"))) {
+      try {
+        return (DenseRegisterKernels) Class.forName(VECTOR_KERNELS_CLASS)
+            .getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) {
+        // not running on JDK 17+ or the vector module is not added
+      }
+    }
+    return new ScalarDenseRegisterKernels();
+  }
+
+  /**
+   * Stores the max of the register values of both registers in register and
+   * updates the histogram of register values for every changed register.
+   * @param register
+   *          - register values to be updated
+   * @param other
+   *          - register values to be merged, of the same length as register
+   * @param histogram
+   *          - histogram of register values in register
+   */
+  abstract void mergeMax(byte[] register, byte[] other, int[] histogram);
+
+  /**
+   * Stores the max of the register values of both registers in the index range
+   * [from, to) of register. The histogram is not updated, so that disjoint
+   * ranges can be merged concurrently.
+   * @param register
+   *          - register values to be updated
+   * @param other
+   *          - register values to be merged, of the same length as register
+   * @param from
+   *          - first register index, inclusive
+   * @param to
+   *          - last register index, exclusive
+   */
+  abstract void mergeMax(byte[] register, byte[] other, int from, int to);
+
+  /**
+   * Computes number of registers for each register value.
+   * @param register
+   *          - register values
+   * @param histogram
+   *          - histogram to be filled, all zeroes
+   */
+  abstract void histogram(byte[] register, int[] histogram);
+
+  /**
+   * @return true if the register loops use the Vector API
+   */
+  boolean isVectorized() {
+    return false;
+  }
+}
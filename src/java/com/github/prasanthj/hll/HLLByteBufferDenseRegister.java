@@ -0,0 +1,120 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <pre>
+ * Dense register that stores each register value in a byte of a caller
+ * supplied ByteBuffer. With a direct (or memory mapped) buffer the registers
+ * live outside the java heap, so large numbers of sketches do not add to GC
+ * pauses, and the registers can be read by native or IPC consumers.
+ *
+ * The registers use the 2^p bytes starting at the position of the buffer at
+ * construction time. The position and limit of the buffer are not modified.
+ * The register value histogram and max register value are kept on heap, so
+ * the buffer should not be updated by anyone else while in use.
+ * </pre>
+ */
+public class HLLByteBufferDenseRegister extends AbstractHLLDenseRegister {
+
+  private final ByteBuffer buffer;
+
+  // absolute offset of register 0 in buffer
+  private final int offset;
+
+  /**
+   * Creates register with all register values set to zero.
+   * @param p
+   *          - number of register bits
+   * @param bitPack
+   *          - bit pack registers when serializing
+   * @param buffer
+   *          - storage for registers with at least 2^p bytes remaining
+   */
+  public HLLByteBufferDenseRegister(int p, boolean bitPack, ByteBuffer buffer) {
+    this(p, bitPack, buffer, true);
+  }
+
+  private HLLByteBufferDenseRegister(int p, boolean bitPack, ByteBuffer buffer, boolean clear) {
+    super(p, bitPack);
+    if (buffer.remaining() < m) {
+      throw new IllegalArgumentException("Buffer with " + buffer.remaining()
+          + " bytes remaining cannot store " + m + " registers");
+    }
+    this.buffer = buffer;
+    this.offset = buffer.position();
+    if (clear) {
+      for (int i = 0; i < m; i++) {
+        buffer.put(offset + i, (byte) 0);
+      }
+    }
+  }
+
+  /**
+   * Creates register over registers already stored in the buffer, for example
+   * by another process or a previous run.
+   * @param p
+   *          - number of register bits
+   * @param bitPack
+   *          - bit pack registers when serializing
+   * @param buffer
+   *          - storage with at least 2^p bytes of register values remaining
+   * @return register over existing register values
+   */
+  public static HLLByteBufferDenseRegister wrap(int p, boolean bitPack, ByteBuffer buffer) {
+    HLLByteBufferDenseRegister result = new HLLByteBufferDenseRegister(p, bitPack, buffer, false);
+    for (int i = 0; i < result.m; i++) {
+      final byte value = result.get(i);
+      if (value < 0) {
+        throw new IllegalArgumentException("Invalid register value " + value + " at index " + i);
+      }
+      if (bitPack && value > result.maxRegisterValue) {
+        result.maxRegisterValue = value;
+      }
+    }
+    result.rebuildHistogram();
+    return result;
+  }
+
+  @Override
+  public byte get(int idx) {
+    return buffer.get(offset + idx);
+  }
+
+  @Override
+  protected void put(int idx, byte value) {
+    buffer.put(offset + idx, value);
+  }
+
+  @Override
+  public byte[] getRegister() {
+    byte[] register = new byte[m];
+    ByteBuffer src = buffer.duplicate();
+    src.position(offset);
+    src.get(register);
+    return register;
+  }
+
+  /**
+   * @return buffer backing the registers
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+}
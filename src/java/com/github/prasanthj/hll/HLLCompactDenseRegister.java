@@ -0,0 +1,147 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import it.unimi.dsi.fastutil.ints.Int2ByteOpenHashMap;
+
+/**
+ * <pre>
+ * Dense register that stores each register in 4 bits (HLL4), taking half the
+ * memory of HLLDenseRegister (8K bytes instead of 16K bytes for p = 14).
+ *
+ * Register values of a dense hyperloglog are clustered closely above the min
+ * register value. Each register stores the offset of its value from a shared
+ * base value, which is the min register value. Offsets 0 to 14 are stored in
+ * the 4 bits. Registers whose offset does not fit are marked with the offset
+ * 15 and their value is stored in a small overflow table.
+ *
+ * When no register has the base value anymore, the base is moved up to the
+ * new min register value and all offsets are recomputed. This happens at most
+ * once for every possible register value.
+ * </pre>
+ */
+public class HLLCompactDenseRegister extends AbstractHLLDenseRegister {
+  // offset marking the register value is stored in overflow table
+  private static final int OVERFLOW = 0xf;
+
+  // register offsets, 2 per byte. Even registers are stored in lower 4 bits.
+  private final byte[] offsets;
+
+  // register index to register value of registers with offset >= OVERFLOW
+  private final Int2ByteOpenHashMap overflow;
+
+  // min register value
+  private int base;
+
+  public HLLCompactDenseRegister(int p) {
+    this(p, true);
+  }
+
+  public HLLCompactDenseRegister(int p, boolean bitPack) {
+    super(p, bitPack);
+    this.offsets = new byte[m >>> 1];
+    this.overflow = new Int2ByteOpenHashMap();
+    this.base = 0;
+  }
+
+  private int getOffset(int idx) {
+    return (offsets[idx >>> 1] >>> ((idx & 1) << 2)) & 0xf;
+  }
+
+  private void putOffset(int idx, int offset) {
+    final int shift = (idx & 1) << 2;
+    final int i = idx >>> 1;
+    offsets[i] = (byte) ((offsets[i] & ~(0xf << shift)) | (offset << shift));
+  }
+
+  @Override
+  public byte get(int idx) {
+    final int offset = getOffset(idx);
+    if (offset == OVERFLOW) {
+      return overflow.get(idx);
+    }
+    return (byte) (base + offset);
+  }
+
+  @Override
+  protected void put(int idx, byte value) {
+    final int offset = value - base;
+    if (offset >= OVERFLOW) {
+      overflow.put(idx, value);
+      putOffset(idx, OVERFLOW);
+    } else {
+      if (getOffset(idx) == OVERFLOW) {
+        overflow.remove(idx);
+      }
+      putOffset(idx, offset);
+    }
+  }
+
+  @Override
+  public boolean set(int idx, byte value) {
+    final boolean updated = super.set(idx, value);
+    // register values only grow, so the base can only move up once the last
+    // register with the base value is updated
+    if (updated && histogram[base] == 0) {
+      rebase();
+    }
+    return updated;
+  }
+
+  private void rebase() {
+    int newBase = base;
+    while (histogram[newBase] == 0) {
+      newBase++;
+    }
+    final int delta = newBase - base;
+    for (int i = 0; i < m; i++) {
+      final int offset = getOffset(i);
+      if (offset != OVERFLOW) {
+        putOffset(i, offset - delta);
+      } else {
+        final int newOffset = overflow.get(i) - newBase;
+        if (newOffset < OVERFLOW) {
+          overflow.remove(i);
+          putOffset(i, newOffset);
+        }
+      }
+    }
+    base = newBase;
+  }
+
+  /**
+   * @return min register value which register offsets are relative to
+   */
+  public int getBase() {
+    return base;
+  }
+
+  /**
+   * @return number of registers stored in overflow table
+   */
+  public int getNumOverflows() {
+    return overflow.size();
+  }
+
+  /**
+   * @return number of bytes used for storing the register offsets excluding
+   *         the overflow table
+   */
+  public int getSizeInBytes() {
+    return offsets.length;
+  }
+}
@@ -0,0 +1,332 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Dense register that can be updated by many threads concurrently without
+ * locking. Registers are stored as bytes packed 8 per long in an
+ * AtomicLongArray and updated with a compare-and-set max loop, so concurrent
+ * add/set/merge calls never lose an update.
+ *
+ * Many threads can feed one sketch through the addXXX() methods, which hash
+ * values the same way as HyperLogLog. count() estimates the cardinality
+ * directly from the packed registers, and toHyperLogLog() copies them into a
+ * DENSE HyperLogLog with the same p for serialization or merging.
+ *
+ * Reads (count(), getNumZeroes(), getSumInversePow2(), getRegister(),
+ * toHyperLogLog()) are not atomic snapshots across the whole register set
+ * when writers are active; each register value read is one that was current
+ * at some point during the read.
+ *
+ * This class does not extend AbstractHLLDenseRegister (and is not a
+ * DenseRegisterType), as the register value histogram maintained by dense
+ * registers cannot be updated without locking.
+ */
+public class HLLConcurrentDenseRegister implements HLLRegister {
+
+  // number of registers packed in a single long
+  private static final int REGISTERS_PER_WORD = Long.BYTES;
+  private static final int REGISTERS_PER_WORD_SHIFT = 3;
+
+  // 2^p registers packed as bytes in 2^p / 8 longs
+  private final AtomicLongArray words;
+
+  // number of register bits
+  private final int p;
+
+  // m = 2^p
+  private final int m;
+
+  // DENSE hyperloglog of the same p, used only for its estimator
+  private final HyperLogLog estimator;
+
+  public HLLConcurrentDenseRegister(int p) {
+    if (p < HLLConstants.MIN_P_VALUE || p > HLLConstants.MAX_P_VALUE) {
+      throw new IllegalArgumentException("p value should be between " + HLLConstants.MIN_P_VALUE
+          + " to " + HLLConstants.MAX_P_VALUE);
+    }
+    this.p = p;
+    this.m = 1 << p;
+    this.words = new AtomicLongArray(m >>> REGISTERS_PER_WORD_SHIFT);
+    this.estimator = HyperLogLog.builder().setNumRegisterIndexBits(p)
+        .setEncoding(HyperLogLog.EncodingType.DENSE).build();
+  }
+
+  public void addBoolean(boolean val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addByte(byte val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addBytes(byte[] val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addShort(short val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addInt(int val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addLong(long val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addFloat(float val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addDouble(double val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addChar(char val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  /**
+   * Java's default charset will be used for strings.
+   * @param val
+   *          - input string
+   */
+  public void addString(String val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addString(String val, Charset charset) {
+    add(HyperLogLog.hash(val, charset));
+  }
+
+  public boolean add(long hashcode) {
+
+    // LSB p bits
+    final int registerIdx = (int) (hashcode & (m - 1));
+
+    // MSB 64 - p bits
+    final long w = hashcode >>> p;
+
+    // longest run of trailing zeroes
+    final int lr = Long.numberOfTrailingZeros(w) + 1;
+    return set(registerIdx, (byte) lr);
+  }
+
+  public boolean set(int idx, byte value) {
+    if (idx >= m || value <= 0) {
+      return false;
+    }
+
+    final int wordIdx = idx >>> REGISTERS_PER_WORD_SHIFT;
+    final int shift = (idx & (REGISTERS_PER_WORD - 1)) << 3;
+    final long mask = 0xffL << shift;
+    long current = words.get(wordIdx);
+    while (true) {
+      final int currentValue = (int) ((current & mask) >>> shift);
+      if (value <= currentValue) {
+        return false;
+      }
+
+      final long updated = (current & ~mask) | ((long) value << shift);
+      if (words.compareAndSet(wordIdx, current, updated)) {
+        return true;
+      }
+      current = words.get(wordIdx);
+    }
+  }
+
+  /**
+   * Merge registers from any dense register or HLLConcurrentDenseRegister of
+   * the same size. Can be called concurrently with add/set.
+   * @param hllRegister
+   *          - register to be merged
+   */
+  public void merge(HLLRegister hllRegister) {
+    if (hllRegister instanceof AbstractHLLDenseRegister) {
+      final AbstractHLLDenseRegister other = (AbstractHLLDenseRegister) hllRegister;
+      checkSameSize(other.size());
+      for (int i = 0; i < m; i++) {
+        final byte value = other.get(i);
+        if (value != 0) {
+          set(i, value);
+        }
+      }
+    } else if (hllRegister instanceof HLLConcurrentDenseRegister) {
+      final HLLConcurrentDenseRegister other = (HLLConcurrentDenseRegister) hllRegister;
+      checkSameSize(other.size());
+      for (int w = 0; w < words.length(); w++) {
+        long word = other.words.get(w);
+        final int base = w << REGISTERS_PER_WORD_SHIFT;
+        for (int i = 0; word != 0; i++) {
+          set(base + i, (byte) word);
+          word >>>= 8;
+        }
+      }
+    } else {
+      throw new IllegalArgumentException(
+          "Specified register is not instance of HLLDenseRegister or HLLConcurrentDenseRegister");
+    }
+  }
+
+  private void checkSameSize(int otherSize) {
+    // merge only if the register length matches
+    if (m != otherSize) {
+      throw new IllegalArgumentException(
+          "The size of register sets of HyperLogLogs to be merged does not match.");
+    }
+  }
+
+  /**
+   * Estimates the cardinality from the packed registers in a single pass,
+   * without copying them.
+   * @return estimated count
+   */
+  public long count() {
+    int numZeroes = 0;
+    double sum = 0;
+    for (int w = 0; w < words.length(); w++) {
+      long word = words.get(w);
+      for (int i = 0; i < REGISTERS_PER_WORD; i++) {
+        final int value = (int) (word & 0xff);
+        if (value == 0) {
+          numZeroes++;
+        }
+        sum += HLLConstants.inversePow2Data[value];
+        word >>>= 8;
+      }
+    }
+    return estimator.estimateDense(sum, numZeroes);
+  }
+
+  /**
+   * @return DENSE hyperloglog with the same p and the current register values
+   */
+  public HyperLogLog toHyperLogLog() {
+    final HyperLogLog result = HyperLogLog.builder().setNumRegisterIndexBits(p)
+        .setEncoding(HyperLogLog.EncodingType.DENSE).build();
+    final AbstractHLLDenseRegister register = result.getDenseRegister();
+    for (int w = 0; w < words.length(); w++) {
+      long word = words.get(w);
+      final int base = w << REGISTERS_PER_WORD_SHIFT;
+      for (int i = 0; word != 0; i++) {
+        register.set(base + i, (byte) word);
+        word >>>= 8;
+      }
+    }
+    return result;
+  }
+
+  public int size() {
+    return m;
+  }
+
+  public int getP() {
+    return p;
+  }
+
+  public byte get(int idx) {
+    final long word = words.get(idx >>> REGISTERS_PER_WORD_SHIFT);
+    return (byte) (word >>> ((idx & (REGISTERS_PER_WORD - 1)) << 3));
+  }
+
+  /**
+   * @return copy of current register values, one byte per register
+   */
+  public byte[] getRegister() {
+    byte[] register = new byte[m];
+    for (int w = 0; w < words.length(); w++) {
+      long word = words.get(w);
+      int base = w << REGISTERS_PER_WORD_SHIFT;
+      for (int i = 0; i < REGISTERS_PER_WORD; i++) {
+        register[base + i] = (byte) word;
+        word >>>= 8;
+      }
+    }
+    return register;
+  }
+
+  public int getNumZeroes() {
+    int numZeroes = 0;
+    for (int w = 0; w < words.length(); w++) {
+      long word = words.get(w);
+      for (int i = 0; i < REGISTERS_PER_WORD; i++) {
+        if ((word & 0xff) == 0) {
+          numZeroes++;
+        }
+        word >>>= 8;
+      }
+    }
+    return numZeroes;
+  }
+
+  public int getMaxRegisterValue() {
+    int max = 0;
+    for (int w = 0; w < words.length(); w++) {
+      long word = words.get(w);
+      for (int i = 0; i < REGISTERS_PER_WORD; i++) {
+        max = Math.max(max, (int) (word & 0xff));
+        word >>>= 8;
+      }
+    }
+    return max;
+  }
+
+  public double getSumInversePow2() {
+    double sum = 0;
+    for (int w = 0; w < words.length(); w++) {
+      long word = words.get(w);
+      for (int i = 0; i < REGISTERS_PER_WORD; i++) {
+        sum += HLLConstants.inversePow2Data[(int) (word & 0xff)];
+        word >>>= 8;
+      }
+    }
+    return sum;
+  }
+
+  // see HLLDenseRegister.extractLowBitsTo()
+  public void extractLowBitsTo(HLLRegister dest) {
+    for (int idx = 0; idx < m; idx++) {
+      byte lr = get(idx);
+      if (lr != 0) {
+        dest.add((long) ((1 << (p + lr - 1)) | idx));
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("HLLConcurrentDenseRegister - ");
+    sb.append("p: ");
+    sb.append(p);
+    sb.append(" numZeroes: ");
+    sb.append(getNumZeroes());
+    sb.append(" maxRegisterValue: ");
+    sb.append(getMaxRegisterValue());
+    return sb.toString();
+  }
+
+  public String toExtendedString() {
+    return toString() + " register: " + Arrays.toString(getRegister());
+  }
+}
@@ -17,65 +17,41 @@
 package com.github.prasanthj.hll;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-public class HLLDenseRegister implements HLLRegister {
+/**
+ * Dense register that stores each register value in a byte.
+ */
+public class HLLDenseRegister extends AbstractHLLDenseRegister {
+
+  // smallest register index range merged by a task of parallel merge
+  private static final int MIN_MERGE_RANGE_SIZE = 1024;
 
   // 2^p number of bytes for register
   private byte[] register;
 
-  // max value stored in registered is cached to determine the bit width for
-  // bit packing
-  private int maxRegisterValue;
-
-  // number of register bits
-  private int p;
-
-  // m = 2^p
-  private int m;
-
   public HLLDenseRegister(int p) {
     this(p, true);
   }
 
   public HLLDenseRegister(int p, boolean bitPack) {
-    this.p = p;
-    this.m = 1 << p;
+    super(p, bitPack);
     this.register = new byte[m];
-    this.maxRegisterValue = 0;
-    if (bitPack == false) {
-      this.maxRegisterValue = 0xff;
-    }
   }
 
-  public boolean add(long hashcode) {
-
-    // LSB p bits
-    final int registerIdx = (int) (hashcode & (m - 1));
-
-    // MSB 64 - p bits
-    final long w = hashcode >>> p;
-
-    // longest run of trailing zeroes
-    final int lr = Long.numberOfTrailingZeros(w) + 1;
-    return set(registerIdx, (byte) lr);
+  @Override
+  public byte get(int idx) {
+    return register[idx];
   }
 
-  // this is a lossy invert of the function above, which produces a hashcode
-  // which collides with the current winner of the register (we lose all higher 
-  // bits, but we get all bits useful for lesser p-bit options)
-
-  // +-------------|-------------+
-  // |xxxx100000000|1000000000000|  (lr=9 + idx=1024)
-  // +-------------|-------------+
-  //                \
-  // +---------------|-----------+
-  // |xxxx10000000010|00000000000|  (lr=2 + idx=0)
-  // +---------------|-----------+
-
-  // This shows the relevant bits of the original hash value
-  // and how the conversion is moving bits from the index value
-  // over to the leading zero computation
+  @Override
+  protected void put(int idx, byte value) {
+    register[idx] = value;
+  }
 
+  @Override
   public void extractLowBitsTo(HLLRegister dest) {
     for (int idx = 0; idx < register.length; idx++) {
       byte lr = register[idx]; // this can be a max of 65, never > 127
@@ -85,6 +61,7 @@ public class HLLDenseRegister implements HLLRegister {
     }
   }
 
+  @Override
   public boolean set(int idx, byte value) {
     boolean updated = false;
     if (idx < register.length && value > register[idx]) {
@@ -94,7 +71,9 @@ public class HLLDenseRegister implements HLLRegister {
         maxRegisterValue = value;
       }
 
-      // set register value and compute inverse pow of 2 for register value
+      // set register value and update the register value histogram
+      histogram[register[idx]]--;
+      histogram[value]++;
       register[idx] = value;
 
       updated = true;
@@ -102,20 +81,7 @@ public class HLLDenseRegister implements HLLRegister {
     return updated;
   }
 
-  public int size() {
-    return register.length;
-  }
-
-  public int getNumZeroes() {
-    int numZeroes = 0;
-    for (byte b : register) {
-      if (b == 0) {
-        numZeroes++;
-      }
-    }
-    return numZeroes;
-  }
-
+  @Override
   public void merge(HLLRegister hllRegister) {
     if (hllRegister instanceof HLLDenseRegister) {
       HLLDenseRegister hdr = (HLLDenseRegister) hllRegister;
@@ -127,55 +93,95 @@ public class HLLDenseRegister implements HLLRegister {
             "The size of register sets of HyperLogLogs to be merged does not match.");
       }
 
-      // compare register values and store the max register value
-      for (int i = 0; i < inRegister.length; i++) {
-        final byte cb = register[i];
-        final byte ob = inRegister[i];
-        register[i] = ob > cb ? ob : cb;
-      }
+      DenseRegisterKernels.INSTANCE.mergeMax(register, inRegister, histogram);
 
       // update max register value
       if (hdr.getMaxRegisterValue() > maxRegisterValue) {
         maxRegisterValue = hdr.getMaxRegisterValue();
       }
     } else {
-      throw new IllegalArgumentException("Specified register is not instance of HLLDenseRegister");
+      super.merge(hllRegister);
     }
   }
 
-  public byte[] getRegister() {
-    return register;
-  }
+  /**
+   * Merges all the specified registers in parallel. The register index range
+   * is split into chunks, about 4 per worker thread, and each task merges its
+   * chunk of all the registers. Tasks update disjoint parts of the register,
+   * so no locking or intermediate register is required, and the chunk of the
+   * register stays in cache while the registers are merged to it. The
+   * histogram is recomputed after all chunks are merged.
+   * @param registers
+   *          - registers to be merged, of the same size
+   * @param pool
+   *          - pool to run the merge on
+   */
+  public void merge(List<HLLDenseRegister> registers, ForkJoinPool pool) {
+    final byte[][] inRegisters = new byte[registers.size()][];
+    int i = 0;
+    for (HLLDenseRegister hdr : registers) {
+      checkSameSize(hdr);
+      inRegisters[i++] = hdr.getRegister();
+      mergeMaxRegisterValue(hdr.getMaxRegisterValue());
+    }
 
-  public void setRegister(byte[] register) {
-    this.register = register;
-  }
+    // chunks of power of 2 registers are aligned to cache lines
+    final int chunkSize = Math.min(m, Math.max(MIN_MERGE_RANGE_SIZE,
+        Integer.highestOneBit(m / (4 * pool.getParallelism()))));
+    pool.invoke(new MergeRangeTask(register, inRegisters, 0, m, chunkSize));
 
-  public int getMaxRegisterValue() {
-    return maxRegisterValue;
+    Arrays.fill(histogram, 0);
+    DenseRegisterKernels.INSTANCE.histogram(register, histogram);
   }
 
-  public double getSumInversePow2() {
-    double sum = 0;
-    for (byte b : register) {
-      sum += HLLConstants.inversePow2Data[b];
+  private static class MergeRangeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] register;
+    private final byte[][] inRegisters;
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+
+    MergeRangeTask(byte[] register, byte[][] inRegisters, int from, int to, int chunkSize) {
+      this.register = register;
+      this.inRegisters = inRegisters;
+      this.from = from;
+      this.to = to;
+      this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= chunkSize) {
+        for (byte[] inRegister : inRegisters) {
+          DenseRegisterKernels.INSTANCE.mergeMax(register, inRegister, from, to);
+        }
+        return;
+      }
+
+      final int mid = (from + to) >>> 1;
+      invokeAll(new MergeRangeTask(register, inRegisters, from, mid, chunkSize),
+          new MergeRangeTask(register, inRegisters, mid, to, chunkSize));
     }
-    return sum;
   }
 
+  /**
+   * @return register values. The returned array must not be modified, use
+   *         set() or setRegister() to update register values.
+   */
   @Override
-  public String toString() {
-    StringBuilder sb = new StringBuilder();
-    sb.append("HLLDenseRegister - ");
-    sb.append("p: ");
-    sb.append(p);
-    sb.append(" numZeroes: ");
-    sb.append(getNumZeroes());
-    sb.append(" maxRegisterValue: ");
-    sb.append(maxRegisterValue);
-    return sb.toString();
+  public byte[] getRegister() {
+    return register;
   }
 
+  public void setRegister(byte[] register) {
+    this.register = register;
+    Arrays.fill(histogram, 0);
+    DenseRegisterKernels.INSTANCE.histogram(register, histogram);
+  }
+
+  @Override
   public String toExtendedString() {
     return toString() + " register: " + Arrays.toString(register);
   }
@@ -183,7 +189,7 @@ public class HLLDenseRegister implements HLLRegister {
   @Override
   public boolean equals(Object obj) {
     if (!(obj instanceof HLLDenseRegister)) {
-      return false;
+      return super.equals(obj);
     }
     HLLDenseRegister other = (HLLDenseRegister) obj;
     return getNumZeroes() == other.getNumZeroes() && maxRegisterValue == other.maxRegisterValue
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+/**
+ * <pre>
+ * Dense register that stores each register value in 6 bits (HLL6). The max
+ * value of number of zeroes for 64 bit hash fits in 6 bits, so this takes 25%
+ * less memory than HLLDenseRegister (12K bytes instead of 16K bytes for p = 14).
+ *
+ * Registers are packed back to back in a long[], so a register can span two
+ * longs. Register i occupies bits [6 * i, 6 * i + 6) of the bit stream where
+ * bit 0 is the LSB of the first long. Every 3 longs hold 32 registers, and
+ * registers 32k + 10 and 32k + 21 span two longs.
+ *
+ * The register value is 65 when all 64 - p hash bits are zeroes, which does
+ * not fit 6 bits. Such values are stored as 63, the largest 6 bit value, so
+ * an HLL6 register differs from an HLL8 register only for hashcodes with
+ * 64 - p zero bits (about 1 in 2^50 for p = 14).
+ * </pre>
+ */
+public class HLLPackedDenseRegister extends AbstractHLLDenseRegister {
+  private static final int BITS_PER_REGISTER = 6;
+  private static final int MAX_REGISTER_VALUE = (1 << BITS_PER_REGISTER) - 1;
+  private static final long REGISTER_MASK = MAX_REGISTER_VALUE;
+
+  // number of longs that hold a whole number of registers, and the number of
+  // registers in them
+  private static final int WORDS_PER_BLOCK = 3;
+  private static final int REGISTERS_PER_BLOCK = 32;
+
+  // for each long of a block, LSB and MSB of every register that is entirely
+  // within the long. Registers of the n-th long of a block start at bit 2 * n.
+  private static final long[] LOW_BITS = new long[WORDS_PER_BLOCK];
+  private static final long[] HIGH_BITS = new long[WORDS_PER_BLOCK];
+  static {
+    for (int i = 0; i < WORDS_PER_BLOCK; i++) {
+      for (int shift = 2 * i; shift <= Long.SIZE - BITS_PER_REGISTER; shift += BITS_PER_REGISTER) {
+        LOW_BITS[i] |= 1L << shift;
+      }
+      HIGH_BITS[i] = LOW_BITS[i] << (BITS_PER_REGISTER - 1);
+    }
+  }
+
+  // registers packed in 6 * 2^p bits
+  private final long[] words;
+
+  public HLLPackedDenseRegister(int p) {
+    this(p, true);
+  }
+
+  public HLLPackedDenseRegister(int p, boolean bitPack) {
+    super(p, bitPack);
+    this.words = new long[(m * BITS_PER_REGISTER + Long.SIZE - 1) / Long.SIZE];
+  }
+
+  @Override
+  public byte get(int idx) {
+    final int bitOffset = idx * BITS_PER_REGISTER;
+    final int wordIdx = bitOffset >>> 6;
+    final int shift = bitOffset & 63;
+    long value = words[wordIdx] >>> shift;
+    if (shift > Long.SIZE - BITS_PER_REGISTER) {
+      // remaining MSB bits of the register are in the next word
+      value |= words[wordIdx + 1] << (Long.SIZE - shift);
+    }
+    return (byte) (value & REGISTER_MASK);
+  }
+
+  @Override
+  protected void put(int idx, byte value) {
+    final int bitOffset = idx * BITS_PER_REGISTER;
+    final int wordIdx = bitOffset >>> 6;
+    final int shift = bitOffset & 63;
+    final long v = value & REGISTER_MASK;
+    words[wordIdx] = (words[wordIdx] & ~(REGISTER_MASK << shift)) | (v << shift);
+    if (shift > Long.SIZE - BITS_PER_REGISTER) {
+      final int bitsInWord = Long.SIZE - shift;
+      words[wordIdx + 1] = (words[wordIdx + 1] & ~(REGISTER_MASK >>> bitsInWord))
+          | (v >>> bitsInWord);
+    }
+  }
+
+  /**
+   * Register values larger than 63 are stored as 63.
+   */
+  @Override
+  public boolean set(int idx, byte value) {
+    return super.set(idx, value > MAX_REGISTER_VALUE ? (byte) MAX_REGISTER_VALUE : value);
+  }
+
+  @Override
+  public void merge(HLLRegister hllRegister) {
+    if (hllRegister instanceof HLLPackedDenseRegister) {
+      HLLPackedDenseRegister other = (HLLPackedDenseRegister) hllRegister;
+      checkSameSize(other);
+
+      // max of the registers within each long, without unpacking them
+      for (int i = 0; i < words.length; i++) {
+        words[i] = mergeWord(words[i], other.words[i], i % WORDS_PER_BLOCK);
+      }
+
+      // registers that span two longs
+      for (int i = 10; i < m; i += REGISTERS_PER_BLOCK) {
+        mergeRegister(i, other.get(i));
+        if (i + 11 < m) {
+          mergeRegister(i + 11, other.get(i + 11));
+        }
+      }
+
+      // update max register value
+      if (other.getMaxRegisterValue() > maxRegisterValue) {
+        maxRegisterValue = other.getMaxRegisterValue();
+      }
+    } else {
+      super.merge(hllRegister);
+    }
+  }
+
+  /**
+   * Max of the registers that are entirely within the long, using SWAR
+   * compares of 6 bit fields. The histogram is updated for the registers of
+   * the long that are updated.
+   * @param word
+   *          - long of this register
+   * @param otherWord
+   *          - long of the other register at the same position
+   * @param n
+   *          - position of the long within its block of 3 longs
+   * @return merged long
+   */
+  private long mergeWord(long word, long otherWord, int n) {
+    final long high = HIGH_BITS[n];
+    final long fields = LOW_BITS[n] * REGISTER_MASK;
+    final long a = word & fields;
+    final long b = otherWord & fields;
+
+    // MSB of a field is set if the 5 low bits of a are >= the 5 low bits of b.
+    // Setting MSB of a and clearing MSB of b keeps borrows within fields.
+    final long lowGe = ((a | high) - (b & ~high)) & high;
+    final long ge = (a & ~b & high) | (~(a ^ b) & lowGe);
+    long gt = high & ~ge;
+    if (gt == 0) {
+      return word;
+    }
+
+    // spread MSB of each greater field of b to the whole field
+    final long mask = (gt >>> (BITS_PER_REGISTER - 1)) * REGISTER_MASK;
+    while (gt != 0) {
+      final int shift = Long.numberOfTrailingZeros(gt) - (BITS_PER_REGISTER - 1);
+      histogram[(int) ((a >>> shift) & REGISTER_MASK)]--;
+      histogram[(int) ((b >>> shift) & REGISTER_MASK)]++;
+      gt &= gt - 1;
+    }
+    return (word & ~mask) | (b & mask);
+  }
+
+  private void mergeRegister(int idx, byte value) {
+    final byte current = get(idx);
+    if (value > current) {
+      histogram[current]--;
+      histogram[value]++;
+      put(idx, value);
+    }
+  }
+
+  /**
+   * @return number of bytes used for storing the registers
+   */
+  public int getSizeInBytes() {
+    return words.length * Long.BYTES;
+  }
+}
@@ -13,25 +13,43 @@
 
 package com.github.prasanthj.hll;
 
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 
 import it.unimi.dsi.fastutil.ints.Int2ByteAVLTreeMap;
 import it.unimi.dsi.fastutil.ints.Int2ByteSortedMap;
 
 public class HLLSparseRegister implements HLLRegister {
 
-  // maintains sorted list of register indices and its corresponding values.
-  // Its easier to use primitive sorted map as opposed to int[] used in this
-  // paper
+  // initial capacity of sparse list. The list grows by 1.5x when full.
+  private static final int SPARSE_LIST_INITIAL_SIZE = 16;
+
+  // temp list flushes smaller than this are sorted with Arrays.sort() instead
+  // of radix sort, as clearing the radix counts would dominate
+  private static final int RADIX_SORT_THRESHOLD = 64;
+
+  // number of register index bits sorted in one radix sort pass
+  private static final int RADIX_BITS = 9;
+
+  // maintains sorted list of sparse entries as described in this paper
   // http://static.googleusercontent.com/media/research.google.com/en//pubs/archive/40671.pdf
-  private Int2ByteSortedMap sparseMap;
+  // Each entry is encoded as (register index << qPrime | register value), so
+  // sorting the entries sorts them by register index. Only the first
+  // sparseListSize entries are valid.
+  private int[] sparseList;
+  private int sparseListSize;
 
   // for a better insertion performance values are added to temporary unsorted
-  // list which will be merged to sparse map after a threshold
+  // list which will be merged to sparse list after a threshold
   private int[] tempList;
   private int tempListIdx;
 
+  // scratch list and digit counts reused by radix sort of the temp list.
+  // Allocated on first radix sort, as small temp lists are never radix sorted.
+  private int[] radixScratch;
+  private int[] radixCounts;
+
   // number of register bits
   private final int p;
 
@@ -47,9 +65,21 @@ public class HLLSparseRegister implements HLLRegister {
   private final int qPrimeMask;
 
   public HLLSparseRegister(int p, int pp, int qp) {
+    this(p, pp, qp, HLLConstants.TEMP_LIST_DEFAULT_SIZE);
+  }
+
+  public HLLSparseRegister(int p, int pp, int qp, int tempListSize) {
+    if (tempListSize <= 0) {
+      throw new IllegalArgumentException("Temp list size should be positive: " + tempListSize);
+    }
+    if (pp + qp > 31) {
+      throw new IllegalArgumentException("pPrime + qPrime should not exceed 31 bits. pPrime: "
+        + pp + " qPrime: " + qp);
+    }
     this.p = p;
-    this.sparseMap = new Int2ByteAVLTreeMap();
-    this.tempList = new int[HLLConstants.TEMP_LIST_DEFAULT_SIZE];
+    this.sparseList = new int[SPARSE_LIST_INITIAL_SIZE];
+    this.sparseListSize = 0;
+    this.tempList = new int[tempListSize];
     this.tempListIdx = 0;
     this.pPrime = pp;
     this.qPrime = qp;
@@ -59,28 +89,26 @@ public class HLLSparseRegister implements HLLRegister {
   }
 
   public boolean add(long hashcode) {
-    boolean updated;
-
-    // fill the temp list before merging to sparse map
-    if (tempListIdx < tempList.length) {
-      int encodedHash = encodeHash(hashcode);
-      tempList[tempListIdx++] = encodedHash;
-      updated = true;
-    } else {
-      updated = mergeTempListToSparseMap();
+    // merge the temp list to sparse list when it is full, to make room for the
+    // new hashcode
+    if (tempListIdx == tempList.length) {
+      mergeTempListToSparseList();
     }
 
-    return updated;
+    tempList[tempListIdx++] = encodeHash(hashcode);
+    return true;
   }
 
   /**
-   * Adds temp list to sparse map. The key for sparse map entry is the register
-   * index determined by pPrime and value is the number of trailing zeroes.
-   * @return
+   * Adds temp list to sparse list. The temp list entries are decoded in place
+   * to (register index, number of trailing zeroes) sparse entries, radix sorted
+   * on the pPrime bits register index, deduplicated retaining the largest
+   * value and merged to the sparse list in a single linear pass.
+   * @return true if any register value is updated else false
    */
-  private boolean mergeTempListToSparseMap() {
-    boolean updated = false;
-    for (int i = 0; i < tempListIdx; i++) {
+  private boolean mergeTempListToSparseList() {
+    final int n = tempListIdx;
+    for (int i = 0; i < n; i++) {
       int encodedHash = tempList[i];
       int key = encodedHash & pPrimeMask;
       byte value = (byte) (encodedHash >>> pPrime);
@@ -94,14 +122,223 @@ public class HLLSparseRegister implements HLLRegister {
       } else {
         nr = (byte) (Integer.numberOfTrailingZeros(encodedHash >>> p) + 1);
       }
-      updated = set(key, nr);
+      tempList[i] = (key << qPrime) | nr;
     }
 
+    if (n < RADIX_SORT_THRESHOLD) {
+      Arrays.sort(tempList, 0, n);
+    } else {
+      if (radixScratch == null) {
+        radixScratch = new int[tempList.length];
+        radixCounts = new int[1 << RADIX_BITS];
+      }
+      radixSort(tempList, radixScratch, radixCounts, n, qPrime, pPrime);
+    }
+    final int length = dedupe(tempList, n);
+
     // reset temp list index
     tempListIdx = 0;
+    return mergeSortedEntries(tempList, length);
+  }
+
+  /**
+   * LSD radix sort of the first n entries on the bits [shift, shift + bits).
+   * Sorting is stable, so entries with same register index retain their order.
+   * scratch should have at least n entries and counts 2^RADIX_BITS entries.
+   */
+  private static void radixSort(int[] entries, int[] scratch, int[] counts, int n, int shift,
+      int bits) {
+    int[] src = entries;
+    int[] dst = scratch;
+    for (int b = 0; b < bits; b += RADIX_BITS) {
+      final int s = shift + b;
+      final int digitMask = (1 << Math.min(RADIX_BITS, bits - b)) - 1;
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < n; i++) {
+        counts[(src[i] >>> s) & digitMask]++;
+      }
+
+      // convert counts to start offsets of each digit
+      int offset = 0;
+      for (int d = 0; d <= digitMask; d++) {
+        final int count = counts[d];
+        counts[d] = offset;
+        offset += count;
+      }
+
+      for (int i = 0; i < n; i++) {
+        final int entry = src[i];
+        dst[counts[(entry >>> s) & digitMask]++] = entry;
+      }
+
+      final int[] tmp = src;
+      src = dst;
+      dst = tmp;
+    }
+
+    if (src != entries) {
+      System.arraycopy(src, 0, entries, 0, n);
+    }
+  }
+
+  /**
+   * Removes entries with duplicate register index from entries sorted by
+   * register index, retaining the entry with the largest value.
+   * @return number of unique entries
+   */
+  private int dedupe(int[] entries, int n) {
+    if (n == 0) {
+      return 0;
+    }
+
+    int w = 0;
+    for (int i = 1; i < n; i++) {
+      final int entry = entries[i];
+      if ((entry >>> qPrime) == (entries[w] >>> qPrime)) {
+        if ((entry & qPrimeMask) > (entries[w] & qPrimeMask)) {
+          entries[w] = entry;
+        }
+      } else {
+        entries[++w] = entry;
+      }
+    }
+    return w + 1;
+  }
+
+  /**
+   * Merges sorted sparse entries into sparse list retaining only the largest
+   * value for a register index. Merging is done in place from the end of the
+   * sparse list so that no intermediate list is required.
+   * @param entries
+   *          - sorted sparse entries with unique register indices
+   * @param length
+   *          - number of entries
+   * @return true if any register value is updated else false
+   */
+  private boolean mergeSortedEntries(int[] entries, int length) {
+    if (length == 0) {
+      return false;
+    }
+
+    ensureCapacity(sparseListSize + length);
+    int i = sparseListSize - 1;
+    int w = sparseListSize + length;
+    boolean updated = false;
+    for (int j = length - 1; j >= 0; j--) {
+      final int entry = entries[j];
+      final int key = entry >>> qPrime;
+
+      // copy larger indices from the sparse list
+      while (i >= 0 && (sparseList[i] >>> qPrime) > key) {
+        sparseList[--w] = sparseList[i--];
+      }
+
+      if (i >= 0 && (sparseList[i] >>> qPrime) == key) {
+        if ((entry & qPrimeMask) > (sparseList[i] & qPrimeMask)) {
+          sparseList[--w] = entry;
+          updated = true;
+        } else {
+          sparseList[--w] = sparseList[i];
+        }
+        i--;
+      } else {
+        sparseList[--w] = entry;
+        updated = true;
+      }
+    }
+
+    // remaining entries are already in place when there are no common register
+    // indices, else the merged entries have to be shifted down
+    final int start = i + 1;
+    final int newSize = start + (sparseListSize + length - w);
+    if (w != start) {
+      System.arraycopy(sparseList, w, sparseList, start, newSize - start);
+    }
+    sparseListSize = newSize;
+    return updated;
+  }
+
+  /**
+   * Merges sorted sparse entries read from the iterator into sparse list
+   * retaining only the largest value for a register index. The sparse list is
+   * moved to the end of the array and merged forward, so the entries are
+   * consumed in order without buffering them.
+   * @param entries
+   *          - sparse entries sorted by register index, with unique register
+   *          indices
+   * @param length
+   *          - number of entries
+   * @return true if any register value is updated else false
+   */
+  boolean mergeSortedEntries(PrimitiveIterator.OfInt entries, int length) {
+    getNumEntries();
+    if (length == 0) {
+      return false;
+    }
+
+    ensureCapacity(sparseListSize + length);
+    final int end = sparseListSize + length;
+    System.arraycopy(sparseList, 0, sparseList, length, sparseListSize);
+
+    // write index stays behind read index i as at most length entries are
+    // added before the moved entries
+    int i = length;
+    int w = 0;
+    boolean updated = false;
+    for (int j = 0; j < length; j++) {
+      final int entry = entries.nextInt();
+      final int key = entry >>> qPrime;
+
+      // copy smaller indices from the sparse list
+      while (i < end && (sparseList[i] >>> qPrime) < key) {
+        sparseList[w++] = sparseList[i++];
+      }
+
+      if (i < end && (sparseList[i] >>> qPrime) == key) {
+        if ((entry & qPrimeMask) > (sparseList[i] & qPrimeMask)) {
+          sparseList[w++] = entry;
+          updated = true;
+        } else {
+          sparseList[w++] = sparseList[i];
+        }
+        i++;
+      } else {
+        sparseList[w++] = entry;
+        updated = true;
+      }
+    }
+
+    while (i < end) {
+      sparseList[w++] = sparseList[i++];
+    }
+    sparseListSize = w;
     return updated;
   }
 
+  private void ensureCapacity(int capacity) {
+    if (capacity > sparseList.length) {
+      int newLength = Math.max(capacity, sparseList.length + (sparseList.length >> 1));
+      sparseList = Arrays.copyOf(sparseList, newLength);
+    }
+  }
+
+  private int findIndex(int key) {
+    int low = 0;
+    int high = sparseListSize - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int midKey = sparseList[mid] >>> qPrime;
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
   /**
    * <pre>
    * <b>Input:</b> 64 bit hashcode
@@ -150,50 +387,180 @@ public class HLLSparseRegister implements HLLRegister {
   }
 
   public int getSize() {
-    return sparseMap.size() + tempListIdx;
+    return sparseListSize + tempListIdx;
+  }
+
+  /**
+   * @return number of distinct register indices in the sparse list after
+   *         merging the temp list
+   */
+  public int getNumEntries() {
+    if (tempListIdx != 0) {
+      mergeTempListToSparseList();
+    }
+    return sparseListSize;
   }
 
   public void merge(HLLRegister hllRegister) {
     if (hllRegister instanceof HLLSparseRegister) {
       HLLSparseRegister hsr = (HLLSparseRegister) hllRegister;
+      if (hsr.qPrime != qPrime) {
+        throw new IllegalArgumentException("Specified register has different qPrime: "
+          + hsr.qPrime + " expected: " + qPrime);
+      }
 
       // retain only the largest value for a register index
-      for (Map.Entry<Integer, Byte> entry : hsr.getSparseMap().entrySet()) {
-        int key = entry.getKey();
-        byte value = entry.getValue();
-        set(key, value);
-      }
+      hsr.getNumEntries();
+      mergeSortedEntries(hsr.sparseList, hsr.sparseListSize);
     } else {
       throw new IllegalArgumentException("Specified register not instance of HLLSparseRegister");
     }
   }
 
+  /**
+   * Merges the specified register only if the merged register has at most
+   * maxEntries entries. As both registers are sorted by register index, the
+   * size of the merged register is counted in a linear pass that stops as
+   * soon as it exceeds maxEntries, so a merge that would exceed maxEntries
+   * costs at most maxEntries comparisons and does not modify this register.
+   * @param other
+   *          - register to be merged
+   * @param maxEntries
+   *          - max number of entries after merge
+   * @return true if merged, false if the merged register would exceed
+   *         maxEntries entries
+   */
+  public boolean merge(HLLSparseRegister other, int maxEntries) {
+    if (other.qPrime != qPrime) {
+      throw new IllegalArgumentException("Specified register has different qPrime: "
+        + other.qPrime + " expected: " + qPrime);
+    }
+
+    getNumEntries();
+    other.getNumEntries();
+    if (sparseListSize + other.sparseListSize > maxEntries
+        && getMergedSize(other.sparseList, other.sparseListSize, maxEntries) > maxEntries) {
+      return false;
+    }
+    mergeSortedEntries(other.sparseList, other.sparseListSize);
+    return true;
+  }
+
+  /**
+   * Number of distinct register indices in sparse list and the sorted
+   * entries, counted up to maxEntries + 1.
+   */
+  private int getMergedSize(int[] entries, int length, int maxEntries) {
+    int i = 0;
+    int j = 0;
+    int size = 0;
+    while (i < sparseListSize && j < length) {
+      final int key = sparseList[i] >>> qPrime;
+      final int otherKey = entries[j] >>> qPrime;
+      if (key <= otherKey) {
+        i++;
+      }
+      if (otherKey <= key) {
+        j++;
+      }
+      if (++size > maxEntries) {
+        return size;
+      }
+    }
+    return size + (sparseListSize - i) + (length - j);
+  }
+
   public boolean set(int key, byte value) {
     // retain only the largest value for a register index
-    Byte containedValue = sparseMap.get(key);
-    if (value > containedValue) {
-      sparseMap.put(key, value);
+    if (value <= 0) {
+      return false;
+    }
+
+    final int entry = (key << qPrime) | value;
+    // entries are mostly set in sorted order during deserialization
+    if (sparseListSize == 0 || (sparseList[sparseListSize - 1] >>> qPrime) < key) {
+      ensureCapacity(sparseListSize + 1);
+      sparseList[sparseListSize++] = entry;
       return true;
     }
-    return false;
+
+    int idx = findIndex(key);
+    if (idx >= 0) {
+      if (value > (sparseList[idx] & qPrimeMask)) {
+        sparseList[idx] = entry;
+        return true;
+      }
+      return false;
+    }
+
+    idx = -(idx + 1);
+    ensureCapacity(sparseListSize + 1);
+    System.arraycopy(sparseList, idx, sparseList, idx + 1, sparseListSize - idx);
+    sparseList[idx] = entry;
+    sparseListSize++;
+    return true;
   }
 
-  public Int2ByteSortedMap getSparseMap() {
-    return getMergedSparseMap();
+  /**
+   * Performs the action for each sparse entry in the order of register index.
+   * @param action
+   *          - consumer of register index (pPrime bits) and register value
+   */
+  public void forEach(IntByteConsumer action) {
+    getNumEntries();
+    for (int i = 0; i < sparseListSize; i++) {
+      action.accept(sparseList[i] >>> qPrime, (byte) (sparseList[i] & qPrimeMask));
+    }
+  }
+
+  /**
+   * Returns iterator over the sparse entries in the order of register index.
+   * Each entry is encoded as (register index &lt;&lt; qPrime | register value).
+   * The register should not be updated while iterating.
+   * @return iterator of encoded sparse entries
+   */
+  public PrimitiveIterator.OfInt entryIterator() {
+    getNumEntries();
+    return new PrimitiveIterator.OfInt() {
+      private int idx = 0;
+
+      @Override
+      public boolean hasNext() {
+        return idx < sparseListSize;
+      }
+
+      @Override
+      public int nextInt() {
+        if (idx >= sparseListSize) {
+          throw new NoSuchElementException();
+        }
+        return sparseList[idx++];
+      }
+    };
   }
 
-  private Int2ByteSortedMap getMergedSparseMap() {
+  /**
+   * Returns a copy of the sparse entries as a sorted map from register index
+   * to register value.
+   * @return sorted map of register index and value
+   */
+  public Int2ByteSortedMap getSparseMap() {
     if (tempListIdx != 0) {
-      mergeTempListToSparseMap();
+      mergeTempListToSparseList();
+    }
+    Int2ByteSortedMap sparseMap = new Int2ByteAVLTreeMap();
+    for (int i = 0; i < sparseListSize; i++) {
+      sparseMap.put(sparseList[i] >>> qPrime, (byte) (sparseList[i] & qPrimeMask));
     }
     return sparseMap;
   }
 
   // this is effectively the same as the dense register impl.
   public void extractLowBitsTo(HLLRegister dest) {
-    for (Entry<Integer, Byte> entry : getSparseMap().entrySet()) {
-      int idx = entry.getKey();
-      byte lr = entry.getValue(); // this can be a max of 65, never > 127
+    getNumEntries();
+    for (int i = 0; i < sparseListSize; i++) {
+      int idx = sparseList[i] >>> qPrime;
+      byte lr = (byte) (sparseList[i] & qPrimeMask); // this can be a max of 65, never > 127
       if (lr != 0) {
         // should be a no-op for sparse
         dest.add((long) ((1 << (p + lr - 1)) | idx));
@@ -209,6 +576,10 @@ public class HLLSparseRegister implements HLLRegister {
     return pPrime;
   }
 
+  public int getTempListSize() {
+    return tempList.length;
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
@@ -223,7 +594,7 @@ public class HLLSparseRegister implements HLLRegister {
   }
 
   public String toExtendedString() {
-    return toString() + " register: " + sparseMap.toString();
+    return toString() + " register: " + getSparseMap().toString();
   }
 
   @Override
@@ -233,7 +604,7 @@ public class HLLSparseRegister implements HLLRegister {
     }
     HLLSparseRegister other = (HLLSparseRegister) obj;
     boolean result = p == other.p && pPrime == other.pPrime && qPrime == other.qPrime
-      && tempListIdx == other.tempListIdx;
+      && tempListIdx == other.tempListIdx && sparseListSize == other.sparseListSize;
     if (result) {
       for (int i = 0; i < tempListIdx; i++) {
         if (tempList[i] != other.tempList[i]) {
@@ -241,7 +612,11 @@ public class HLLSparseRegister implements HLLRegister {
         }
       }
 
-      result = result && sparseMap.equals(other.sparseMap);
+      for (int i = 0; i < sparseListSize; i++) {
+        if (sparseList[i] != other.sparseList[i]) {
+          return false;
+        }
+      }
     }
     return result;
   }
@@ -253,9 +628,11 @@ public class HLLSparseRegister implements HLLRegister {
     hashcode += 31 * pPrime;
     hashcode += 31 * qPrime;
     for (int i = 0; i < tempListIdx; i++) {
-      hashcode += 31 * tempList[tempListIdx];
+      hashcode += 31 * tempList[i];
+    }
+    for (int i = 0; i < sparseListSize; i++) {
+      hashcode = 31 * hashcode + sparseList[i];
     }
-    hashcode += sparseMap.hashCode();
     return hashcode;
   }
 
@@ -15,10 +15,14 @@ package com.github.prasanthj.hll;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.Map;
-
-import it.unimi.dsi.fastutil.doubles.Double2IntAVLTreeMap;
-import it.unimi.dsi.fastutil.doubles.Double2IntSortedMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * <pre>
@@ -43,21 +47,75 @@ import it.unimi.dsi.fastutil.doubles.Double2IntSortedMap;
  * <b>noBias</b> - Use Google's bias table lookup for short range bias correction.
  *          Enabling this will highly improve the estimation accuracy for short
  *          range values. <i>Default: true</i>
+ * <b>denseRegisterType</b> - In-memory storage of DENSE registers. HLL8 stores each
+ *                     register in a byte, HLL6 packs registers in 6 bits to
+ *                     reduce memory by 25%. HLL4 stores 4 bit offsets from
+ *                     the min register value with an overflow table for
+ *                     outliers, reducing memory by 50% at the cost of slower
+ *                     adds. <i>Default: HLL8</i>
+ * <b>sparseTempListSize</b> - Number of hashcodes buffered by SPARSE encoding before
+ *                      they are sorted and merged to the sparse register. Larger
+ *                      buffers make merges less frequent at the cost of memory.
+ *                      <i>Default: 1024</i>
+ * <b>denseRegisterBuffer</b> - ByteBuffer (typically direct or memory mapped) to store the
+ *                       DENSE registers in, one byte per register, instead of
+ *                       the java heap. Uses the 2^p bytes at the position of
+ *                       the buffer when build() is called. Overrides
+ *                       denseRegisterType. A builder builds only one
+ *                       hyperloglog per buffer set. <i>Default: null</i>
  *
+ * <b>Thread safety</b> - A HyperLogLog instance is not thread-safe; concurrent
+ * add/merge/count calls on the same instance must be synchronized externally.
+ * HyperLogLog does not share any mutable state across instances, so different
+ * instances can be updated from different threads concurrently without locking
+ * (for example one sketch per partition on a thread pool).
  * </pre>
  */
 public class HyperLogLog {
   private final static int DEFAULT_HASH_BITS = 64;
   private final static long HASH64_ZERO = Murmur3.hash64(new byte[]{0});
   private final static long HASH64_ONE = Murmur3.hash64(new byte[]{1});
-  private final static ByteBuffer SHORT_BUFFER = ByteBuffer.allocate(Short.BYTES);
-  private final static ByteBuffer INT_BUFFER = ByteBuffer.allocate(Integer.BYTES);
-  private final static ByteBuffer LONG_BUFFER = ByteBuffer.allocate(Long.BYTES);
+  // max number of hashcodes computed at once by addAllXXX() methods
+  private final static int BATCH_SIZE = 1024;
+
+  // smallest number of hyperloglogs merged by a leaf task of parallelUnion()
+  private final static int PARALLEL_UNION_MIN_LEAF_SIZE = 16;
+
+  // raw estimates (and their bias) sorted by raw estimate for nearest neighbor
+  // lookup. HLLConstants.rawEstimateData is only mostly sorted.
+  private final static double[][] SORTED_RAW_ESTIMATE_DATA;
+  private final static double[][] SORTED_BIAS_DATA;
+  static {
+    int numP = HLLConstants.rawEstimateData.length;
+    SORTED_RAW_ESTIMATE_DATA = new double[numP][];
+    SORTED_BIAS_DATA = new double[numP][];
+    for (int i = 0; i < numP; i++) {
+      final double[] rawEst = HLLConstants.rawEstimateData[i];
+      final double[] bias = HLLConstants.biasData[i];
+      Integer[] order = new Integer[rawEst.length];
+      for (int j = 0; j < order.length; j++) {
+        order[j] = j;
+      }
+      Arrays.sort(order, (a, b) -> Double.compare(rawEst[a], rawEst[b]));
+
+      SORTED_RAW_ESTIMATE_DATA[i] = new double[order.length];
+      SORTED_BIAS_DATA[i] = new double[order.length];
+      for (int j = 0; j < order.length; j++) {
+        SORTED_RAW_ESTIMATE_DATA[i][j] = rawEst[order[j]];
+        SORTED_BIAS_DATA[i][j] = bias[order[j]];
+      }
+    }
+  }
 
   public enum EncodingType {
     SPARSE, DENSE
   }
 
+  // in-memory storage of DENSE registers. Does not affect serialization.
+  public enum DenseRegisterType {
+    HLL8, HLL6, HLL4
+  }
+
   // number of bits to address registers
   private final int p;
 
@@ -73,10 +131,20 @@ public class HyperLogLog {
   // enable/disable bitpacking
   private final boolean bitPacking;
 
+  // number of hashcodes buffered by sparse register before merging
+  private final int sparseTempListSize;
+
+  // storage used for dense registers
+  private final DenseRegisterType denseRegisterType;
+
+  // off heap storage for dense registers, if specified. Slice of the 2^p bytes
+  // at the position of the builder buffer at build time.
+  private final ByteBuffer denseRegisterBuffer;
+
   // Not making it configurable for perf reasons (avoid checks)
   private final int chosenHashBits = DEFAULT_HASH_BITS;
 
-  private HLLDenseRegister denseRegister;
+  private AbstractHLLDenseRegister denseRegister;
   private HLLSparseRegister sparseRegister;
 
   // counts are cached to avoid repeated complex computation. If register value
@@ -95,10 +163,29 @@ public class HyperLogLog {
       throw new IllegalArgumentException("p value should be between " + HLLConstants.MIN_P_VALUE
         + " to " + HLLConstants.MAX_P_VALUE);
     }
+    if (hllBuilder.sparseTempListSize <= 0) {
+      throw new IllegalArgumentException("sparse temp list size should be positive: "
+        + hllBuilder.sparseTempListSize);
+    }
     this.p = hllBuilder.numRegisterIndexBits;
     this.m = 1 << p;
     this.noBias = hllBuilder.noBias;
     this.bitPacking = hllBuilder.bitPacking;
+    this.sparseTempListSize = hllBuilder.sparseTempListSize;
+    this.denseRegisterType = hllBuilder.denseRegisterType;
+    if (hllBuilder.denseRegisterBuffer != null) {
+      // registers use the region at the position of the buffer at build time,
+      // even if the position of the buffer changes later
+      ByteBuffer buffer = hllBuilder.denseRegisterBuffer.duplicate();
+      if (buffer.remaining() < m) {
+        throw new IllegalArgumentException("dense register buffer should have at least " + m
+          + " bytes remaining: " + buffer.remaining());
+      }
+      buffer.limit(buffer.position() + m);
+      this.denseRegisterBuffer = buffer.slice();
+    } else {
+      this.denseRegisterBuffer = null;
+    }
 
     // the threshold should be less than 12K bytes for p = 14.
     // The reason to divide by 5 is, in sparse mode after serialization the
@@ -125,11 +212,26 @@ public class HyperLogLog {
     this.encoding = hllBuilder.encoding;
     if (encoding.equals(EncodingType.SPARSE)) {
       this.sparseRegister = new HLLSparseRegister(p, HLLConstants.P_PRIME_VALUE,
-        HLLConstants.Q_PRIME_VALUE);
+        HLLConstants.Q_PRIME_VALUE, sparseTempListSize);
       this.denseRegister = null;
     } else {
       this.sparseRegister = null;
-      this.denseRegister = new HLLDenseRegister(p, bitPacking);
+      this.denseRegister = newDenseRegister(p);
+    }
+  }
+
+  private AbstractHLLDenseRegister newDenseRegister(int p) {
+    if (denseRegisterBuffer != null) {
+      return new HLLByteBufferDenseRegister(p, bitPacking, denseRegisterBuffer);
+    }
+    switch (denseRegisterType) {
+      case HLL6:
+        return new HLLPackedDenseRegister(p, bitPacking);
+      case HLL4:
+        return new HLLCompactDenseRegister(p, bitPacking);
+      case HLL8:
+      default:
+        return new HLLDenseRegister(p, bitPacking);
     }
   }
 
@@ -142,6 +244,11 @@ public class HyperLogLog {
     private EncodingType encoding = EncodingType.SPARSE;
     private boolean bitPacking = true;
     private boolean noBias = true;
+    private int sparseTempListSize = HLLConstants.TEMP_LIST_DEFAULT_SIZE;
+    private DenseRegisterType denseRegisterType = DenseRegisterType.HLL8;
+    private ByteBuffer denseRegisterBuffer = null;
+    // true once a hyperloglog is built with denseRegisterBuffer
+    private boolean denseRegisterBufferUsed = false;
 
     public HyperLogLogBuilder() {
     }
@@ -166,8 +273,56 @@ public class HyperLogLog {
       return this;
     }
 
+    public HyperLogLogBuilder setSparseTempListSize(int size) {
+      this.sparseTempListSize = size;
+      return this;
+    }
+
+    public HyperLogLogBuilder setDenseRegisterType(DenseRegisterType type) {
+      this.denseRegisterType = type;
+      return this;
+    }
+
+    public HyperLogLogBuilder setDenseRegisterBuffer(ByteBuffer buffer) {
+      this.denseRegisterBuffer = buffer;
+      this.denseRegisterBufferUsed = false;
+      return this;
+    }
+
+    /**
+     * @return new hyperloglog
+     * @throws IllegalStateException - when the dense register buffer is
+     *           already used by a hyperloglog built by this builder
+     */
     public HyperLogLog build() {
-      return new HyperLogLog(this);
+      if (denseRegisterBufferUsed) {
+        throw new IllegalStateException("dense register buffer is already used by another "
+          + "HyperLogLog. Set a new buffer to build another HyperLogLog.");
+      }
+      HyperLogLog hll = new HyperLogLog(this);
+      denseRegisterBufferUsed = denseRegisterBuffer != null;
+      return hll;
+    }
+
+    /**
+     * @return new builder with the same options, not affected by later
+     *         changes to this builder
+     */
+    HyperLogLogBuilder copy() {
+      HyperLogLogBuilder copy = new HyperLogLogBuilder();
+      copy.numRegisterIndexBits = numRegisterIndexBits;
+      copy.encoding = encoding;
+      copy.bitPacking = bitPacking;
+      copy.noBias = noBias;
+      copy.sparseTempListSize = sparseTempListSize;
+      copy.denseRegisterType = denseRegisterType;
+      copy.denseRegisterBuffer = denseRegisterBuffer;
+      copy.denseRegisterBufferUsed = denseRegisterBufferUsed;
+      return copy;
+    }
+
+    ByteBuffer getDenseRegisterBuffer() {
+      return denseRegisterBuffer;
     }
   }
 
@@ -187,46 +342,87 @@ public class HyperLogLog {
     alphaMM = alphaMM * m * m;
   }
 
+  // hashing of values, shared with StripedHyperLogLog so that both hash the
+  // same value to the same hashcode
+  static long hash(boolean val) {
+    return val ? HASH64_ONE : HASH64_ZERO;
+  }
+
+  static long hash(byte val) {
+    return Murmur3.hash64(val);
+  }
+
+  static long hash(byte[] val) {
+    return Murmur3.hash64(val);
+  }
+
+  static long hash(short val) {
+    return Murmur3.hash64(val);
+  }
+
+  static long hash(int val) {
+    return Murmur3.hash64(val);
+  }
+
+  static long hash(long val) {
+    return Murmur3.hash64(val);
+  }
+
+  static long hash(float val) {
+    return Murmur3.hash64(Float.floatToRawIntBits(val));
+  }
+
+  static long hash(double val) {
+    return Murmur3.hash64(Double.doubleToRawLongBits(val));
+  }
+
+  static long hash(char val) {
+    return Murmur3.hash64((short) val);
+  }
+
+  static long hash(String val, Charset charset) {
+    return Murmur3.hash64(val.getBytes(charset));
+  }
+
+  // Java's default charset will be used
+  static long hash(String val) {
+    return Murmur3.hash64(val.getBytes());
+  }
+
   public void addBoolean(boolean val) {
-    add(val ? HASH64_ONE : HASH64_ZERO);
+    add(hash(val));
   }
 
   public void addByte(byte val) {
-    add(Murmur3.hash64(new byte[]{val}));
+    add(hash(val));
   }
 
   public void addBytes(byte[] val) {
-    add(Murmur3.hash64(val));
+    add(hash(val));
   }
 
   public void addShort(short val) {
-    SHORT_BUFFER.putShort(0, val);
-    add(Murmur3.hash64(SHORT_BUFFER.array()));
+    add(hash(val));
   }
 
   public void addInt(int val) {
-    INT_BUFFER.putInt(0, val);
-    add(Murmur3.hash64(INT_BUFFER.array()));
+    add(hash(val));
   }
 
   public void addLong(long val) {
-    LONG_BUFFER.putLong(0, val);
-    add(Murmur3.hash64(LONG_BUFFER.array()));
+    add(hash(val));
   }
 
   public void addFloat(float val) {
-    INT_BUFFER.putFloat(0, val);
-    add(Murmur3.hash64(INT_BUFFER.array()));
+    add(hash(val));
   }
 
   public void addDouble(double val) {
-    LONG_BUFFER.putDouble(0, val);
-    add(Murmur3.hash64(LONG_BUFFER.array()));
+    add(hash(val));
   }
 
   public void addChar(char val) {
-    SHORT_BUFFER.putChar(0, val);
-    add(Murmur3.hash64(SHORT_BUFFER.array()));
+    add(hash(val));
   }
 
   /**
@@ -235,11 +431,11 @@ public class HyperLogLog {
    *          - input string
    */
   public void addString(String val) {
-    add(Murmur3.hash64(val.getBytes()));
+    add(hash(val));
   }
 
   public void addString(String val, Charset charset) {
-    add(Murmur3.hash64(val.getBytes(charset)));
+    add(hash(val, charset));
   }
 
   public void add(long hashcode) {
@@ -263,6 +459,122 @@ public class HyperLogLog {
     }
   }
 
+  /**
+   * Adds all hashcodes in the specified array. Equivalent to calling add() for
+   * each hashcode, but the encoding is checked once per batch instead of per
+   * hashcode and switches from SPARSE to DENSE at most once.
+   * @param hashcodes
+   *          - hashcodes to add
+   */
+  public void addAll(long[] hashcodes) {
+    addAll(hashcodes, 0, hashcodes.length);
+  }
+
+  /**
+   * Adds length hashcodes starting at offset from the specified array.
+   * @param hashcodes
+   *          - hashcodes to add
+   * @param offset
+   *          - offset of the first hashcode to add
+   * @param length
+   *          - number of hashcodes to add
+   */
+  public void addAll(long[] hashcodes, int offset, int length) {
+    if (offset < 0 || length < 0 || length > hashcodes.length - offset) {
+      throw new IndexOutOfBoundsException("offset: " + offset + " length: " + length
+        + " array length: " + hashcodes.length);
+    }
+
+    int i = offset;
+    final int end = offset + length;
+    boolean updated = false;
+    if (encoding.equals(EncodingType.SPARSE)) {
+      final HLLSparseRegister sparse = sparseRegister;
+      while (i < end) {
+        // every add grows the sparse register size by at most 1, so these many
+        // hashcodes can be added before the switch threshold has to be checked
+        // again
+        int chunkEnd = i + Math.max(1, encodingSwitchThreshold - sparse.getSize());
+        if (chunkEnd > end || chunkEnd < 0) {
+          chunkEnd = end;
+        }
+        for (; i < chunkEnd; i++) {
+          updated |= sparse.add(hashcodes[i]);
+        }
+
+        if (sparse.getSize() > encodingSwitchThreshold) {
+          encoding = EncodingType.DENSE;
+          denseRegister = sparseToDenseRegister(sparse);
+          sparseRegister = null;
+          updated = true;
+          break;
+        }
+      }
+    }
+
+    if (i < end) {
+      final AbstractHLLDenseRegister dense = denseRegister;
+      for (; i < end; i++) {
+        updated |= dense.add(hashcodes[i]);
+      }
+    }
+
+    if (updated) {
+      invalidateCount = true;
+    }
+  }
+
+  /**
+   * Hashes and adds all values in the specified array. Same as calling addLong()
+   * for each value.
+   * @param vals
+   *          - values to add
+   */
+  public void addAllLongs(long[] vals) {
+    long[] hashcodes = new long[Math.min(vals.length, BATCH_SIZE)];
+    for (int offset = 0; offset < vals.length; offset += hashcodes.length) {
+      final int n = Math.min(hashcodes.length, vals.length - offset);
+      for (int i = 0; i < n; i++) {
+        hashcodes[i] = hash(vals[offset + i]);
+      }
+      addAll(hashcodes, 0, n);
+    }
+  }
+
+  /**
+   * Hashes and adds all values in the specified array. Same as calling addInt()
+   * for each value.
+   * @param vals
+   *          - values to add
+   */
+  public void addAllInts(int[] vals) {
+    long[] hashcodes = new long[Math.min(vals.length, BATCH_SIZE)];
+    for (int offset = 0; offset < vals.length; offset += hashcodes.length) {
+      final int n = Math.min(hashcodes.length, vals.length - offset);
+      for (int i = 0; i < n; i++) {
+        hashcodes[i] = hash(vals[offset + i]);
+      }
+      addAll(hashcodes, 0, n);
+    }
+  }
+
+  /**
+   * Hashes and adds all values in the specified array. Same as calling
+   * addString() for each value (Java's default charset will be used).
+   * @param vals
+   *          - values to add
+   */
+  public void addAllStrings(String[] vals) {
+    long[] hashcodes = new long[Math.min(vals.length, BATCH_SIZE)];
+    for (int offset = 0; offset < vals.length; offset += hashcodes.length) {
+      final int n = Math.min(hashcodes.length, vals.length - offset);
+      for (int i = 0; i < n; i++) {
+        hashcodes[i] = hash(vals[offset + i]);
+      }
+      addAll(hashcodes, 0, n);
+    }
+  }
+
   public long count() {
 
     // compute count only if the register values are updated else return the
@@ -273,54 +585,13 @@ public class HyperLogLog {
         // if encoding is still SPARSE use linear counting with increase
         // accuracy (as we use pPrime bits for register index)
         int mPrime = 1 << sparseRegister.getPPrime();
-        cachedCount = linearCount(mPrime, mPrime - sparseRegister.getSparseMap().size());
+        cachedCount = linearCount(mPrime, mPrime - sparseRegister.getNumEntries());
       } else {
 
         // for DENSE encoding, use bias table lookup for HLLNoBias algorithm
         // else fallback to HLLOriginal algorithm
-        double sum = denseRegister.getSumInversePow2();
-        long numZeros = denseRegister.getNumZeroes();
-
-        // cardinality estimate from normalized bias corrected harmonic mean on
-        // the registers
-        cachedCount = (long) (alphaMM * (1.0 / sum));
-        long pow = (long) Math.pow(2, chosenHashBits);
-
-        // when bias correction is enabled
-        if (noBias) {
-          cachedCount = cachedCount <= 5 * m ? (cachedCount - estimateBias(cachedCount))
-            : cachedCount;
-          long h = cachedCount;
-          if (numZeros != 0) {
-            h = linearCount(m, numZeros);
-          }
-
-          if (h < getThreshold()) {
-            cachedCount = h;
-          }
-        } else {
-          // HLL algorithm shows stronger bias for values in (2.5 * m) range.
-          // To compensate for this short range bias, linear counting is used
-          // for values before this short range. The original paper also says
-          // similar bias is seen for long range values due to hash collisions
-          // in range >1/30*(2^32). For the default case, we do not have to
-          // worry about this long range bias as the paper used 32-bit hashing
-          // and we use 64-bit hashing as default. 2^64 values are too high to
-          // observe long range bias (hash collisions).
-          if (cachedCount <= 2.5 * m) {
-
-            // for short range use linear counting
-            if (numZeros != 0) {
-              cachedCount = linearCount(m, numZeros);
-            }
-          } else if (chosenHashBits < 64 && cachedCount > (0.033333 * pow)) {
-
-            // long range bias for 32-bit hashcodes
-            if (cachedCount > (1 / 30) * pow) {
-              cachedCount = (long) (-pow * Math.log(1.0 - (double) cachedCount / (double) pow));
-            }
-          }
-        }
+        cachedCount = estimateDense(denseRegister.getSumInversePow2(),
+          denseRegister.getNumZeroes());
       }
       invalidateCount = false;
     }
@@ -328,6 +599,58 @@ public class HyperLogLog {
     return cachedCount;
   }
 
+  /**
+   * Estimates cardinality of DENSE registers of this hyperloglog's p from the
+   * register stats.
+   * @param sum
+   *          - sum of inverse powers of 2 of register values
+   * @param numZeros
+   *          - number of registers with value zero
+   * @return estimated count
+   */
+  long estimateDense(double sum, long numZeros) {
+    // cardinality estimate from normalized bias corrected harmonic mean on
+    // the registers
+    long count = (long) (alphaMM * (1.0 / sum));
+    long pow = (long) Math.pow(2, chosenHashBits);
+
+    // when bias correction is enabled
+    if (noBias) {
+      count = count <= 5 * m ? (count - estimateBias(count)) : count;
+      long h = count;
+      if (numZeros != 0) {
+        h = linearCount(m, numZeros);
+      }
+
+      if (h < getThreshold()) {
+        count = h;
+      }
+    } else {
+      // HLL algorithm shows stronger bias for values in (2.5 * m) range.
+      // To compensate for this short range bias, linear counting is used
+      // for values before this short range. The original paper also says
+      // similar bias is seen for long range values due to hash collisions
+      // in range >1/30*(2^32). For the default case, we do not have to
+      // worry about this long range bias as the paper used 32-bit hashing
+      // and we use 64-bit hashing as default. 2^64 values are too high to
+      // observe long range bias (hash collisions).
+      if (count <= 2.5 * m) {
+
+        // for short range use linear counting
+        if (numZeros != 0) {
+          count = linearCount(m, numZeros);
+        }
+      } else if (chosenHashBits < 64 && count > (0.033333 * pow)) {
+
+        // long range bias for 32-bit hashcodes
+        if (count > (1 / 30) * pow) {
+          count = (long) (-pow * Math.log(1.0 - (double) count / (double) pow));
+        }
+      }
+    }
+    return count;
+  }
+
   private long getThreshold() {
     return (long) (HLLConstants.thresholdData[p - 4] + 0.5);
   }
@@ -338,33 +661,38 @@ public class HyperLogLog {
    *          - cardinality before bias correction
    * @return cardinality after bias correction
    */
-  private long estimateBias(long count) {
-    double[] rawEstForP = HLLConstants.rawEstimateData[p - 4];
-
-    // compute distance and store it in sorted map
-    Double2IntSortedMap estIndexMap = new Double2IntAVLTreeMap();
-    double distance = 0;
-    for (int i = 0; i < rawEstForP.length; i++) {
-      distance = Math.pow(count - rawEstForP[i], 2);
-      estIndexMap.put(distance, i);
+  long estimateBias(long count) {
+    double[] rawEstForP = SORTED_RAW_ESTIMATE_DATA[p - 4];
+    double[] biasForP = SORTED_BIAS_DATA[p - 4];
+
+    // binary search for the first raw estimate >= count
+    int low = 0;
+    int high = rawEstForP.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (rawEstForP[mid] < count) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
     }
 
-    // take top-k closest neighbors and compute the bias corrected cardinality
-    long result = 0;
-    double[] biasForP = HLLConstants.biasData[p - 4];
+    // take top-k closest neighbors by expanding to the left and right of the
+    // search position and compute the bias corrected cardinality
+    int left = low - 1;
+    int right = low;
     double biasSum = 0;
-    int kNeighbors = HLLConstants.K_NEAREST_NEIGHBOR;
-    for (Map.Entry<Double, Integer> entry : estIndexMap.entrySet()) {
-      biasSum += biasForP[entry.getValue()];
-      kNeighbors--;
-      if (kNeighbors <= 0) {
-        break;
+    for (int k = 0; k < HLLConstants.K_NEAREST_NEIGHBOR; k++) {
+      if (right >= rawEstForP.length
+        || (left >= 0 && count - rawEstForP[left] <= rawEstForP[right] - count)) {
+        biasSum += biasForP[left--];
+      } else {
+        biasSum += biasForP[right++];
       }
     }
 
     // 0.5 added for rounding off
-    result = (long) ((biasSum / HLLConstants.K_NEAREST_NEIGHBOR) + 0.5);
-    return result;
+    return (long) ((biasSum / HLLConstants.K_NEAREST_NEIGHBOR) + 0.5);
   }
 
   public void setCount(long count) {
@@ -381,7 +709,24 @@ public class HyperLogLog {
     return 1.04 / Math.sqrt(m);
   }
 
+  /**
+   * @return DENSE register, null for SPARSE encoding. Registers that are not
+   *         stored one byte per register on heap (see DenseRegisterType) are
+   *         returned as a copy, use getDenseRegister() to access them.
+   */
   public HLLDenseRegister getHLLDenseRegister() {
+    if (denseRegister == null || denseRegister instanceof HLLDenseRegister) {
+      return (HLLDenseRegister) denseRegister;
+    }
+    HLLDenseRegister copy = new HLLDenseRegister(p, bitPacking);
+    copy.merge(denseRegister);
+    return copy;
+  }
+
+  /**
+   * @return DENSE register of any storage type, null for SPARSE encoding
+   */
+  public AbstractHLLDenseRegister getDenseRegister() {
     return denseRegister;
   }
 
@@ -400,6 +745,7 @@ public class HyperLogLog {
       byte value = (byte) (i & 0x3f);
       sparseRegister.set(key, value);
     }
+    invalidateCount = true;
   }
 
   /**
@@ -413,6 +759,7 @@ public class HyperLogLog {
       denseRegister.set(i, b);
       i++;
     }
+    invalidateCount = true;
   }
 
   /**
@@ -442,29 +789,382 @@ public class HyperLogLog {
     EncodingType otherEncoding = hll.getEncoding();
 
     if (encoding.equals(EncodingType.SPARSE) && otherEncoding.equals(EncodingType.SPARSE)) {
-      sparseRegister.merge(hll.getHLLSparseRegister());
-      // if after merge the sparse switching threshold is exceeded then change
-      // to dense encoding
-      if (sparseRegister.getSize() > encodingSwitchThreshold) {
+      // linear merge of the sorted sparse registers. If the merged register
+      // would exceed the sparse switching threshold, both sparse registers are
+      // merged to a dense register instead of building the merged sparse
+      // register first
+      HLLSparseRegister other = hll.getHLLSparseRegister();
+      if (!sparseRegister.merge(other, encodingSwitchThreshold)) {
         encoding = EncodingType.DENSE;
         denseRegister = sparseToDenseRegister(sparseRegister);
+        mergeSparseToDense(other, denseRegister);
         sparseRegister = null;
       }
     } else if (encoding.equals(EncodingType.DENSE) && otherEncoding.equals(EncodingType.DENSE)) {
-      denseRegister.merge(hll.getHLLDenseRegister());
+      denseRegister.merge(hll.getDenseRegister());
     } else if (encoding.equals(EncodingType.SPARSE) && otherEncoding.equals(EncodingType.DENSE)) {
       denseRegister = sparseToDenseRegister(sparseRegister);
-      denseRegister.merge(hll.getHLLDenseRegister());
+      denseRegister.merge(hll.getDenseRegister());
       sparseRegister = null;
       encoding = EncodingType.DENSE;
     } else if (encoding.equals(EncodingType.DENSE) && otherEncoding.equals(EncodingType.SPARSE)) {
-      HLLDenseRegister otherDenseRegister = sparseToDenseRegister(hll.getHLLSparseRegister());
-      denseRegister.merge(otherDenseRegister);
+      mergeSparseToDense(hll.getHLLSparseRegister(), denseRegister);
+    }
+
+    invalidateCount = true;
+  }
+
+  /**
+   * Merges sparse entries (register index &lt;&lt; qPrime | register value) of a
+   * hyperloglog with the same p, without materializing it. Encoding switches
+   * automatically after merge if the encoding switch threshold is exceeded.
+   * @param entries
+   *          - sparse entries sorted by register index, with unique register
+   *          indices
+   * @param length
+   *          - number of entries
+   */
+  void mergeSparseEntries(PrimitiveIterator.OfInt entries, int length) {
+    if (encoding.equals(EncodingType.SPARSE)) {
+      sparseRegister.mergeSortedEntries(entries, length);
+      if (sparseRegister.getSize() > encodingSwitchThreshold) {
+        encoding = EncodingType.DENSE;
+        denseRegister = sparseToDenseRegister(sparseRegister);
+        sparseRegister = null;
+      }
+    } else {
+      final int pMask = m - 1;
+      for (int i = 0; i < length; i++) {
+        final int entry = entries.nextInt();
+        denseRegister.set((entry >>> HLLConstants.Q_PRIME_VALUE) & pMask,
+          (byte) (entry & ((1 << HLLConstants.Q_PRIME_VALUE) - 1)));
+      }
+    }
+    invalidateCount = true;
+  }
+
+  /**
+   * Switches to DENSE encoding so that the registers of a DENSE hyperloglog
+   * can be merged directly to the returned register.
+   * @return dense register of this hyperloglog
+   */
+  AbstractHLLDenseRegister getDenseRegisterForMerge() {
+    if (encoding.equals(EncodingType.SPARSE)) {
+      denseRegister = sparseToDenseRegister(sparseRegister);
+      sparseRegister = null;
+      encoding = EncodingType.DENSE;
+    }
+    invalidateCount = true;
+    return denseRegister;
+  }
+
+  /**
+   * Union of all the specified hyperloglogs as a new hyperloglog. The result
+   * has the smallest p of the hyperloglogs and otherwise the configuration of
+   * the first hyperloglog. The registers of the specified hyperloglogs are not
+   * modified, but hashcodes buffered by SPARSE hyperloglogs are merged to
+   * their sparse registers (as count() does), so the hyperloglogs should not
+   * be used by other threads during the union.
+   *
+   * SPARSE hyperloglogs are merged with a k-way merge of their sorted sparse
+   * entries using a min heap, so that no intermediate sparse register is
+   * built. The result switches to a single DENSE register, and the remaining
+   * entries are merged to it, as soon as the merged entries exceed the
+   * encoding switch threshold. If any hyperloglog is DENSE (or has larger p)
+   * all hyperloglogs are merged to a single DENSE register.
+   * @param hlls
+   *          - hyperloglogs to union
+   * @return union of the hyperloglogs
+   * @throws IllegalArgumentException - when there are no hyperloglogs
+   */
+  public static HyperLogLog unionAll(Collection<HyperLogLog> hlls) {
+    if (hlls.isEmpty()) {
+      throw new IllegalArgumentException("No HyperLogLogs to union");
+    }
+    return unionAll(hlls, hlls.iterator().next(), getMinP(hlls));
+  }
+
+  private static int getMinP(Collection<HyperLogLog> hlls) {
+    int p0 = HLLConstants.MAX_P_VALUE;
+    for (HyperLogLog hll : hlls) {
+      p0 = Math.min(p0, hll.p);
+    }
+    return p0;
+  }
+
+  // unionAll() with the configuration of first and p0 for the result
+  private static HyperLogLog unionAll(Collection<HyperLogLog> hlls, HyperLogLog first, int p0) {
+    final HyperLogLog result = new HyperLogLogBuilder().setNumRegisterIndexBits(p0)
+      .setEncoding(EncodingType.SPARSE).enableBitPacking(first.bitPacking)
+      .enableNoBias(first.noBias).setSparseTempListSize(first.sparseTempListSize)
+      .setDenseRegisterType(first.denseRegisterType).build();
+
+    final List<HLLSparseRegister> sparseRegisters = new ArrayList<>(hlls.size());
+    boolean dense = false;
+    for (HyperLogLog hll : hlls) {
+      if (hll.encoding.equals(EncodingType.SPARSE) && hll.p == p0) {
+        sparseRegisters.add(hll.sparseRegister);
+      } else {
+        dense = true;
+      }
+    }
+
+    if (dense) {
+      final AbstractHLLDenseRegister denseRegister = result.getDenseRegisterForMerge();
+      for (HLLSparseRegister sparseRegister : sparseRegisters) {
+        mergeSparseToDense(sparseRegister, denseRegister);
+      }
+      for (HyperLogLog hll : hlls) {
+        if (!hll.encoding.equals(EncodingType.SPARSE) || hll.p != p0) {
+          result.merge(hll);
+        }
+      }
+    } else {
+      result.unionSparse(sparseRegisters);
+    }
+    result.invalidateCount = true;
+    return result;
+  }
+
+  /**
+   * Merges all the specified hyperloglogs to this hyperloglog, which switches
+   * to DENSE encoding. DENSE hyperloglogs with the same p are merged in
+   * parallel on the pool by splitting the register index range, so that each
+   * worker merges its range of registers of all the hyperloglogs (see
+   * HLLDenseRegister.merge(List, ForkJoinPool)). Other hyperloglogs are merged
+   * with merge(). Unlike parallelUnion() this parallelizes a merge to a single
+   * target, for few targets with very many hyperloglogs each.
+   * @param hlls
+   *          - hyperloglogs to be merged
+   * @param pool
+   *          - pool to run the merge on
+   * @throws IllegalArgumentException - throw when incompatible HLL are tried to be merged
+   */
+  public void parallelMerge(List<HyperLogLog> hlls, ForkJoinPool pool) {
+    for (HyperLogLog hll : hlls) {
+      if (chosenHashBits != hll.chosenHashBits || p > hll.p) {
+        throw new IllegalArgumentException(
+          "HyperLogLog cannot be merged as either p or hashbits are different. Current: "
+            + toString() + " Provided: " + hll.toString());
+      }
     }
 
+    final AbstractHLLDenseRegister dense = getDenseRegisterForMerge();
+    final List<HLLDenseRegister> registers = new ArrayList<>(hlls.size());
+    for (HyperLogLog hll : hlls) {
+      if (dense instanceof HLLDenseRegister && hll.p == p
+        && hll.encoding.equals(EncodingType.DENSE)
+        && hll.denseRegister instanceof HLLDenseRegister) {
+        registers.add((HLLDenseRegister) hll.denseRegister);
+      } else {
+        merge(hll);
+      }
+    }
+    if (!registers.isEmpty()) {
+      ((HLLDenseRegister) dense).merge(registers, pool);
+    }
     invalidateCount = true;
   }
 
+  /**
+   * Same as parallelUnion(hlls, ForkJoinPool.commonPool()).
+   */
+  public static HyperLogLog parallelUnion(List<HyperLogLog> hlls) {
+    return parallelUnion(hlls, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Union of all the specified hyperloglogs as a new hyperloglog, computed on
+   * the specified pool. The list is split into about 4 leaves per worker
+   * thread and each worker unions its leaves to its own accumulator. Once an
+   * accumulator is DENSE the leaves are merged to it in place, so the
+   * accumulator is reused for all the leaves of the worker. While it is still
+   * SPARSE, the leaf and the accumulator are unioned with the k-way merge of
+   * unionAll() to a new accumulator. The accumulators of the workers are
+   * merged to the result at the end.
+   *
+   * The result is same as unionAll(hlls). Each hyperloglog is read by a single
+   * worker and hashcodes buffered by SPARSE hyperloglogs are merged to their
+   * sparse registers, so the hyperloglogs should not be used by other threads
+   * during the union and the same instance should not be in the list more
+   * than once.
+   * @param hlls
+   *          - hyperloglogs to union
+   * @param pool
+   *          - pool to run the union on
+   * @return union of the hyperloglogs
+   * @throws IllegalArgumentException - when there are no hyperloglogs
+   */
+  public static HyperLogLog parallelUnion(List<HyperLogLog> hlls, ForkJoinPool pool) {
+    if (hlls.isEmpty()) {
+      throw new IllegalArgumentException("No HyperLogLogs to union");
+    }
+    final int leafSize = Math.max(PARALLEL_UNION_MIN_LEAF_SIZE,
+      hlls.size() / (4 * pool.getParallelism()));
+    final ConcurrentHashMap<Thread, HyperLogLog> accumulators = new ConcurrentHashMap<>();
+    pool.invoke(new UnionTask(hlls, 0, hlls.size(), leafSize, hlls.get(0), getMinP(hlls),
+      accumulators));
+
+    HyperLogLog result = null;
+    for (HyperLogLog accumulator : accumulators.values()) {
+      if (result == null) {
+        result = accumulator;
+      } else {
+        result.merge(accumulator);
+      }
+    }
+    return result;
+  }
+
+  private static class UnionTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<HyperLogLog> hlls;
+    private final int start;
+    private final int end;
+    private final int leafSize;
+    private final HyperLogLog first;
+    private final int p0;
+    private final ConcurrentHashMap<Thread, HyperLogLog> accumulators;
+
+    UnionTask(List<HyperLogLog> hlls, int start, int end, int leafSize, HyperLogLog first,
+        int p0, ConcurrentHashMap<Thread, HyperLogLog> accumulators) {
+      this.hlls = hlls;
+      this.start = start;
+      this.end = end;
+      this.leafSize = leafSize;
+      this.first = first;
+      this.p0 = p0;
+      this.accumulators = accumulators;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= leafSize) {
+        // the accumulator of a worker is only read and replaced by the worker itself
+        final Thread worker = Thread.currentThread();
+        accumulators.put(worker, union(accumulators.get(worker), hlls.subList(start, end)));
+        return;
+      }
+
+      final int mid = (start + end) >>> 1;
+      invokeAll(new UnionTask(hlls, start, mid, leafSize, first, p0, accumulators),
+        new UnionTask(hlls, mid, end, leafSize, first, p0, accumulators));
+    }
+
+    private HyperLogLog union(HyperLogLog accumulator, List<HyperLogLog> leaf) {
+      if (accumulator == null) {
+        return unionAll(leaf, first, p0);
+      }
+      if (accumulator.encoding.equals(EncodingType.DENSE)) {
+        for (HyperLogLog hll : leaf) {
+          accumulator.merge(hll);
+        }
+        return accumulator;
+      }
+      final List<HyperLogLog> union = new ArrayList<>(leaf.size() + 1);
+      union.add(accumulator);
+      union.addAll(leaf);
+      return unionAll(union, first, p0);
+    }
+  }
+
+  /**
+   * k-way merge of the sparse registers to the empty sparse register of this
+   * hyperloglog. The heap holds the index of each register with remaining
+   * entries, ordered by the current entry of the register. As entries are
+   * encoded as (register index &lt;&lt; qPrime | register value), entries of
+   * the same register index are popped together.
+   */
+  private void unionSparse(List<HLLSparseRegister> registers) {
+    final int k = registers.size();
+    final PrimitiveIterator.OfInt[] cursors = new PrimitiveIterator.OfInt[k];
+    final int[] heads = new int[k];
+    final int[] heap = new int[k];
+    int heapSize = 0;
+    for (int i = 0; i < k; i++) {
+      cursors[i] = registers.get(i).entryIterator();
+      if (cursors[i].hasNext()) {
+        heads[i] = cursors[i].nextInt();
+        heap[heapSize++] = i;
+      }
+    }
+    for (int i = heapSize / 2 - 1; i >= 0; i--) {
+      siftDown(heap, heapSize, heads, i);
+    }
+
+    final int qPrime = HLLConstants.Q_PRIME_VALUE;
+    final int qPrimeMask = (1 << qPrime) - 1;
+    int numEntries = 0;
+    int key = -1;
+    byte value = 0;
+    while (heapSize > 0) {
+      final int top = heap[0];
+      final int entry = heads[top];
+      if (cursors[top].hasNext()) {
+        heads[top] = cursors[top].nextInt();
+      } else {
+        heap[0] = heap[--heapSize];
+      }
+      siftDown(heap, heapSize, heads, 0);
+
+      final int entryKey = entry >>> qPrime;
+      final byte entryValue = (byte) (entry & qPrimeMask);
+      if (entryKey == key) {
+        value = (byte) Math.max(value, entryValue);
+        continue;
+      }
+
+      // all entries of the previous register index are merged
+      if (key >= 0) {
+        sparseRegister.set(key, value);
+        numEntries++;
+      }
+      key = entryKey;
+      value = entryValue;
+
+      if (numEntries >= encodingSwitchThreshold) {
+        // there are more than threshold entries including the current one.
+        // Remaining entries are merged to the dense register directly.
+        final AbstractHLLDenseRegister dense = getDenseRegisterForMerge();
+        final int pMask = m - 1;
+        dense.set(key & pMask, value);
+        for (int i = 0; i < heapSize; i++) {
+          final int cursor = heap[i];
+          dense.set((heads[cursor] >>> qPrime) & pMask, (byte) (heads[cursor] & qPrimeMask));
+          while (cursors[cursor].hasNext()) {
+            final int next = cursors[cursor].nextInt();
+            dense.set((next >>> qPrime) & pMask, (byte) (next & qPrimeMask));
+          }
+        }
+        return;
+      }
+    }
+    if (key >= 0) {
+      sparseRegister.set(key, value);
+    }
+  }
+
+  private static void siftDown(int[] heap, int heapSize, int[] heads, int i) {
+    final int cursor = heap[i];
+    final int entry = heads[cursor];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && heads[heap[child + 1]] < heads[heap[child]]) {
+        child++;
+      }
+      if (heads[heap[child]] >= entry) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = cursor;
+  }
+
   /**
    * Reduces the accuracy of the HLL provided to a smaller size
    * @param p0
@@ -484,8 +1184,8 @@ public class HyperLogLog {
 
     final HyperLogLog hll = new HyperLogLogBuilder()
       .setNumRegisterIndexBits(p0).setEncoding(EncodingType.DENSE)
-      .enableNoBias(noBias).build();
-    final HLLDenseRegister result = hll.denseRegister;
+      .setDenseRegisterType(denseRegisterType).enableNoBias(noBias).build();
+    final AbstractHLLDenseRegister result = hll.denseRegister;
 
     if (encoding == EncodingType.SPARSE) {
       sparseRegister.extractLowBitsTo(result);
@@ -501,21 +1201,21 @@ public class HyperLogLog {
    *          - sparse register to be converted
    * @return converted dense register
    */
-  private HLLDenseRegister sparseToDenseRegister(HLLSparseRegister sparseRegister) {
+  private AbstractHLLDenseRegister sparseToDenseRegister(HLLSparseRegister sparseRegister) {
     if (sparseRegister == null) {
       return null;
     }
-    int p = sparseRegister.getP();
-    int pMask = (1 << p) - 1;
-    HLLDenseRegister result = new HLLDenseRegister(p, bitPacking);
-    for (Map.Entry<Integer, Byte> entry : sparseRegister.getSparseMap().entrySet()) {
-      int key = entry.getKey();
-      int idx = key & pMask;
-      result.set(idx, entry.getValue());
-    }
+    AbstractHLLDenseRegister result = newDenseRegister(sparseRegister.getP());
+    mergeSparseToDense(sparseRegister, result);
     return result;
   }
 
+  private static void mergeSparseToDense(HLLSparseRegister sparseRegister,
+    AbstractHLLDenseRegister denseRegister) {
+    final int pMask = (1 << sparseRegister.getP()) - 1;
+    sparseRegister.forEach((key, value) -> denseRegister.set(key & pMask, value));
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
@@ -562,7 +1262,7 @@ public class HyperLogLog {
     boolean result = p == other.p && chosenHashBits == other.chosenHashBits
       && encoding.equals(other.encoding) && count == otherCount;
     if (encoding.equals(EncodingType.DENSE)) {
-      result = result && denseRegister.equals(other.getHLLDenseRegister());
+      result = result && denseRegister.equals(other.getDenseRegister());
     }
 
     if (encoding.equals(EncodingType.SPARSE)) {
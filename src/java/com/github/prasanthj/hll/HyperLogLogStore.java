@@ -0,0 +1,303 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * Fixed number of DENSE hyperloglogs stored in a memory mapped file. Sketches
+ * are identified by key index (0 to numKeys - 1) and are updated, merged and
+ * counted in place, so opening a store does not read or deserialize any
+ * sketch. The OS page cache decides which sketches are resident in memory.
+ *
+ * File layout:
+ * |-4 byte-|-1 byte-|-1 byte-|-2 byte-|-8 byte-|-numKeys * 2^p bytes-|
+ * | "HLLS" |version |   p    |reserved|numKeys |      registers      |
+ *
+ * Registers of each key are stored as 2^p bytes, one byte per register, in
+ * the same order as HLLDenseRegister. Register values are written to the
+ * mapped file as they are updated. Use flush() to force them to disk.
+ *
+ * Each key is accessed through an HLLByteBufferDenseRegister over its region
+ * of the file. Registers of recently used keys are cached in a direct mapped
+ * cache of 1024 keys, so that repeated count() calls for a key use the
+ * register value histogram of its register instead of reading all its
+ * registers. A key that is not cached reads all its registers once to build
+ * the histogram.
+ *
+ * A store is not thread-safe. Estimation uses the defaults of HyperLogLog
+ * (bias correction enabled).
+ * </pre>
+ */
+public class HyperLogLogStore implements Closeable {
+  private static final byte[] MAGIC = new byte[] { 'H', 'L', 'L', 'S' };
+  private static final byte VERSION = 1;
+  static final int HEADER_SIZE = 16;
+
+  // size of each mapped region. A MappedByteBuffer cannot exceed 2GB so
+  // registers are mapped in multiple segments.
+  static final int DEFAULT_SEGMENT_SIZE_BITS = 30;
+
+  // number of keys with cached registers, power of 2
+  private static final int NUM_CACHED_KEYS = 1024;
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer[] segments;
+  private final int p;
+  private final int m;
+  private final long numKeys;
+
+  // number of keys in a segment = 2^keysPerSegmentBits
+  private final int keysPerSegmentBits;
+
+  // used only for estimation
+  private final HyperLogLog estimator;
+
+  // registers of recently used keys. The register of a key is cached at
+  // key index % NUM_CACHED_KEYS, or -1 if no key is cached there.
+  private final HLLByteBufferDenseRegister[] cachedRegisters;
+  private final long[] cachedKeys;
+
+  private HyperLogLogStore(RandomAccessFile file, int p, long numKeys, int segmentSizeBits)
+      throws IOException {
+    this.file = file;
+    this.p = p;
+    this.m = 1 << p;
+    this.numKeys = numKeys;
+    this.keysPerSegmentBits = Math.max(0, segmentSizeBits - p);
+    this.estimator = HyperLogLog.builder().setNumRegisterIndexBits(p)
+        .setEncoding(HyperLogLog.EncodingType.DENSE).build();
+    this.cachedRegisters = new HLLByteBufferDenseRegister[NUM_CACHED_KEYS];
+    this.cachedKeys = new long[NUM_CACHED_KEYS];
+    Arrays.fill(cachedKeys, -1);
+
+    final long keysPerSegment = 1L << keysPerSegmentBits;
+    final int numSegments = (int) ((numKeys + keysPerSegment - 1) / keysPerSegment);
+    this.segments = new MappedByteBuffer[numSegments];
+    final FileChannel channel = file.getChannel();
+    for (int i = 0; i < numSegments; i++) {
+      final long firstKey = i * keysPerSegment;
+      final long segmentKeys = Math.min(keysPerSegment, numKeys - firstKey);
+      segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + (firstKey << p),
+          segmentKeys << p);
+    }
+  }
+
+  /**
+   * Creates a new store file with all sketches empty. Existing file is
+   * overwritten.
+   * @param path
+   *          - store file
+   * @param p
+   *          - number of register index bits of all sketches
+   * @param numKeys
+   *          - number of sketches
+   * @return store
+   * @throws IOException
+   */
+  public static HyperLogLogStore create(File path, int p, long numKeys) throws IOException {
+    return create(path, p, numKeys, DEFAULT_SEGMENT_SIZE_BITS);
+  }
+
+  static HyperLogLogStore create(File path, int p, long numKeys, int segmentSizeBits)
+      throws IOException {
+    if (p < HLLConstants.MIN_P_VALUE || p > HLLConstants.MAX_P_VALUE) {
+      throw new IllegalArgumentException("p value should be between " + HLLConstants.MIN_P_VALUE
+          + " to " + HLLConstants.MAX_P_VALUE);
+    }
+    if (numKeys <= 0) {
+      throw new IllegalArgumentException("Number of keys should be positive: " + numKeys);
+    }
+
+    RandomAccessFile file = new RandomAccessFile(path, "rw");
+    try {
+      // truncate and extend the file with zeroes, which are empty registers
+      file.setLength(0);
+      file.setLength(HEADER_SIZE + (numKeys << p));
+      file.write(MAGIC);
+      file.writeByte(VERSION);
+      file.writeByte(p);
+      file.writeShort(0);
+      file.writeLong(numKeys);
+      return new HyperLogLogStore(file, p, numKeys, segmentSizeBits);
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens an existing store file. Sketches are not read until accessed.
+   * @param path
+   *          - store file
+   * @return store
+   * @throws IOException
+   */
+  public static HyperLogLogStore open(File path) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(path, "rw");
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      file.readFully(magic);
+      for (int i = 0; i < MAGIC.length; i++) {
+        if (magic[i] != MAGIC[i]) {
+          throw new IllegalArgumentException("The input file is not a hyperloglog store: " + path);
+        }
+      }
+      final int version = file.readByte();
+      if (version != VERSION) {
+        throw new IllegalArgumentException("Unsupported hyperloglog store version: " + version);
+      }
+      final int p = file.readByte();
+      file.readShort();
+      final long numKeys = file.readLong();
+      if (p < HLLConstants.MIN_P_VALUE || p > HLLConstants.MAX_P_VALUE || numKeys <= 0
+          || file.length() < HEADER_SIZE + (numKeys << p)) {
+        throw new IllegalArgumentException("Corrupted hyperloglog store: " + path);
+      }
+      return new HyperLogLogStore(file, p, numKeys, DEFAULT_SEGMENT_SIZE_BITS);
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @param keyIndex
+   *          - key index
+   * @return register over the region of the key in the store file
+   */
+  private HLLByteBufferDenseRegister register(long keyIndex) {
+    // checked before the cache lookup, as unused cache slots have key -1
+    if (keyIndex < 0 || keyIndex >= numKeys) {
+      throw new IndexOutOfBoundsException("key index: " + keyIndex + " numKeys: " + numKeys);
+    }
+    final int slot = (int) (keyIndex & (NUM_CACHED_KEYS - 1));
+    if (cachedKeys[slot] == keyIndex) {
+      return cachedRegisters[slot];
+    }
+
+    final ByteBuffer region = segments[(int) (keyIndex >>> keysPerSegmentBits)].duplicate();
+    final int offset = (int) ((keyIndex & ((1L << keysPerSegmentBits) - 1)) << p);
+    region.position(offset);
+    region.limit(offset + m);
+    final HLLByteBufferDenseRegister register = HLLByteBufferDenseRegister.wrap(p, true,
+        region.slice());
+    cachedRegisters[slot] = register;
+    cachedKeys[slot] = keyIndex;
+    return register;
+  }
+
+  /**
+   * Adds hashcode to the sketch of the specified key.
+   * @param keyIndex
+   *          - key index
+   * @param hashcode
+   *          - 64 bit hashcode
+   * @return true if a register was updated
+   */
+  public boolean add(long keyIndex, long hashcode) {
+    return register(keyIndex).add(hashcode);
+  }
+
+  /**
+   * Merges hyperloglog to the sketch of the specified key. Hyperloglogs with
+   * larger p are squashed to the p of the store.
+   * @param keyIndex
+   *          - key index
+   * @param hll
+   *          - hyperloglog to be merged
+   */
+  public void merge(long keyIndex, HyperLogLog hll) {
+    final HLLByteBufferDenseRegister register = register(keyIndex);
+    if (hll.getNumRegisterIndexBits() < p) {
+      throw new IllegalArgumentException("HyperLogLog cannot merge a smaller p into a larger one : "
+          + hll.getNumRegisterIndexBits() + " store p: " + p);
+    }
+    hll = hll.squash(p);
+
+    if (hll.getEncoding() == HyperLogLog.EncodingType.SPARSE) {
+      final int pMask = m - 1;
+      hll.getHLLSparseRegister().forEach((key, value) -> register.set(key & pMask, value));
+    } else {
+      register.merge(hll.getDenseRegister());
+    }
+  }
+
+  /**
+   * Estimates the cardinality of the sketch of the specified key.
+   * @param keyIndex
+   *          - key index
+   * @return estimated count
+   */
+  public long count(long keyIndex) {
+    final HLLByteBufferDenseRegister register = register(keyIndex);
+    return estimator.estimateDense(register.getSumInversePow2(), register.getNumZeroes());
+  }
+
+  /**
+   * @param keyIndex
+   *          - key index
+   * @return copy of the sketch of the specified key as a DENSE hyperloglog
+   */
+  public HyperLogLog toHyperLogLog(long keyIndex) {
+    final byte[] register = register(keyIndex).getRegister();
+    HyperLogLog result = HyperLogLog.builder().setNumRegisterIndexBits(p)
+        .setEncoding(HyperLogLog.EncodingType.DENSE).build();
+    result.setHLLDenseRegister(register);
+    return result;
+  }
+
+  public int getNumRegisterIndexBits() {
+    return p;
+  }
+
+  public long getNumKeys() {
+    return numKeys;
+  }
+
+  /**
+   * Forces all register updates to be written to the store file.
+   */
+  public void flush() {
+    for (MappedByteBuffer segment : segments) {
+      segment.force();
+    }
+  }
+
+  /**
+   * Flushes register updates and closes the store file. The store should not
+   * be used after close.
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+    file.close();
+  }
+
+  @Override
+  public String toString() {
+    return "HyperLogLogStore - p: " + p + " numKeys: " + numKeys;
+  }
+}
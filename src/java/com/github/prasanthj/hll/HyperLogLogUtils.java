@@ -17,14 +17,18 @@
 package com.github.prasanthj.hll;
 
 import com.github.prasanthj.hll.HyperLogLog.EncodingType;
-import it.unimi.dsi.fastutil.ints.Int2ByteSortedMap;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
-import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * HyperLogLog serialization utilities.
@@ -33,6 +37,14 @@ public class HyperLogLogUtils {
 
   public static final byte[] MAGIC = new byte[] { 'H', 'L', 'L' };
 
+  // max bytes of a variable length encoded long
+  private static final int MAX_VULONG_SIZE = 10;
+
+  // hyperloglogs with default configuration for each p, used for estimating
+  // the count of merged serialized registers (same as after deserialization)
+  private static final AtomicReferenceArray<HyperLogLog> ESTIMATORS =
+      new AtomicReferenceArray<>(HLLConstants.MAX_P_VALUE + 1);
+
   /**
    * HyperLogLog is serialized using the following format
    * 
@@ -63,66 +75,112 @@ public class HyperLogLogUtils {
    * @throws IOException - thrown by OutputStream
    */
   public static void serializeHLL(OutputStream out, HyperLogLog hll) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(getSerializedSize(hll));
+    writeHLL(buffer, hll);
+    out.write(buffer.array(), 0, buffer.position());
+    out.flush();
+  }
+
+  /**
+   * Serializes hyperloglog to the specified buffer starting at its position.
+   * Refer serializeHLL(OutputStream, HyperLogLog) for format of serialization.
+   * The position of the buffer is advanced by getSerializedSize(hll) bytes.
+   * The serialized bytes do not depend on the byte order of the buffer.
+   * @param out
+   *          - buffer to write to
+   * @param hll
+   *          - hyperloglog that needs to be serialized
+   * @throws java.nio.BufferOverflowException - when the buffer does not have
+   *           getSerializedSize(hll) bytes remaining
+   */
+  public static void serializeHLL(ByteBuffer out, HyperLogLog hll) {
+    if (out.remaining() < getSerializedSize(hll)) {
+      throw new BufferOverflowException();
+    }
+    writeHLL(out, hll);
+  }
 
+  // serializes hyperloglog to a buffer with at least getSerializedSize(hll)
+  // bytes remaining
+  private static void writeHLL(ByteBuffer out, HyperLogLog hll) {
     // write header
-    out.write(MAGIC);
-    int fourthByte = 0;
+    out.put(MAGIC);
     int p = hll.getNumRegisterIndexBits();
-    fourthByte = (p & 0xff) << 4;
-
-    int bitWidth = 0;
+    int fourthByte = (p & 0xff) << 4;
     EncodingType enc = hll.getEncoding();
-
-    // determine bit width for bitpacking and encode it in header
+    int bitWidth = 0;
     if (enc.equals(EncodingType.DENSE)) {
-      int lzr = hll.getHLLDenseRegister().getMaxRegisterValue();
-      bitWidth = getBitWidth(lzr);
-
-      // the max value of number of zeroes for 64 bit hash can be encoded using
-      // only 6 bits. So we will disable bit packing for any values >6
-      if (bitWidth > 6) {
-        fourthByte |= 7;
-        bitWidth = 8;
-      } else {
-        fourthByte |= (bitWidth & 7);
-      }
+      bitWidth = getBitWidth(hll);
+      fourthByte |= (bitWidth == 8 ? 7 : bitWidth);
     }
 
     // write fourth byte of header
-    out.write(fourthByte);
+    out.put((byte) fourthByte);
 
     // write estimated count
-    long estCount = hll.count();
-    writeVulong(out, estCount);
+    writeVulong(out, hll.count());
 
     // serialize dense/sparse registers. Dense registers are bitpacked whereas
     // sparse registers are delta and variable length encoded
     if (enc.equals(EncodingType.DENSE)) {
-      byte[] register = hll.getHLLDenseRegister().getRegister();
-      bitpackHLLRegister(out, register, bitWidth);
+      bitpackHLLRegister(out, hll.getDenseRegister().getRegister(), bitWidth);
     } else if (enc.equals(EncodingType.SPARSE)) {
-      Map<Integer, Byte> sparseMap = hll.getHLLSparseRegister().getSparseMap();
+      HLLSparseRegister sparseRegister = hll.getHLLSparseRegister();
 
       // write the number of elements in sparse map (required for
       // reconstruction)
-      writeVulong(out, sparseMap.size());
+      writeVulong(out, sparseRegister.getNumEntries());
 
-      // compute deltas and write the values as varints
+      // compute deltas of the encoded entries (register index << qPrime |
+      // register value) and write the values as varints
       int prev = 0;
-      for (Map.Entry<Integer, Byte> entry : sparseMap.entrySet()) {
-        if (prev == 0) {
-          prev = (entry.getKey() << HLLConstants.Q_PRIME_VALUE) | entry.getValue();
-          writeVulong(out, prev);
-        } else {
-          int curr = (entry.getKey() << HLLConstants.Q_PRIME_VALUE) | entry.getValue();
-          int delta = curr - prev;
-          writeVulong(out, delta);
-          prev = curr;
-        }
+      for (PrimitiveIterator.OfInt it = sparseRegister.entryIterator(); it.hasNext();) {
+        int curr = it.nextInt();
+        writeVulong(out, curr - prev);
+        prev = curr;
       }
     }
   }
 
+  /**
+   * @param hll
+   *          - hyperloglog
+   * @return exact number of bytes written by serializeHLL() for the current
+   *         state of the hyperloglog
+   */
+  public static int getSerializedSize(HyperLogLog hll) {
+    int size = MAGIC.length + 1 + getVulongSize(hll.count());
+    if (hll.getEncoding().equals(EncodingType.DENSE)) {
+      size += getBitpackedSize(1 << hll.getNumRegisterIndexBits(), getBitWidth(hll));
+    } else {
+      HLLSparseRegister sparseRegister = hll.getHLLSparseRegister();
+      size += getVulongSize(sparseRegister.getNumEntries());
+      int prev = 0;
+      for (PrimitiveIterator.OfInt it = sparseRegister.entryIterator(); it.hasNext();) {
+        int curr = it.nextInt();
+        size += getVulongSize(curr - prev);
+        prev = curr;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Bit width used for bitpacking dense registers, 8 if bitpacking is disabled.
+   */
+  private static int getBitWidth(HyperLogLog hll) {
+    int bitWidth = getBitWidth(hll.getDenseRegister().getMaxRegisterValue());
+
+    // the max value of number of zeroes for 64 bit hash can be encoded using
+    // only 6 bits. So we will disable bit packing for any values >6. Empty
+    // registers use 1 bit as 0 bits in header is reserved for sparse encoding.
+    return bitWidth > 6 ? 8 : Math.max(bitWidth, 1);
+  }
+
+  private static int getBitpackedSize(int numRegisters, int bitWidth) {
+    return (int) (((long) numRegisters * bitWidth + 7) >>> 3);
+  }
+
   /**
    * Refer serializeHLL() for format of serialization. This funtions
    * deserializes the serialized hyperloglogs
@@ -135,60 +193,65 @@ public class HyperLogLogUtils {
     checkMagicString(in);
     int fourthByte = in.read() & 0xff;
     int p = fourthByte >>> 4;
-
-    // read type of encoding
-    int enc = fourthByte & 7;
-    EncodingType encoding = null;
-    int bitSize = 0;
-    if (enc == 0) {
-      encoding = EncodingType.SPARSE;
-    } else if (enc > 0 && enc < 7) {
-      bitSize = enc;
-      encoding = EncodingType.DENSE;
-    } else {
-      // bit packing disabled
-      bitSize = 8;
-      encoding = EncodingType.DENSE;
-    }
+    int bitSize = getBitSize(fourthByte);
 
     // estimated count
     long estCount = readVulong(in);
 
-    HyperLogLog result = null;
-    if (encoding.equals(EncodingType.SPARSE)) {
-      result = HyperLogLog.builder().setNumRegisterIndexBits(p)
-          .setEncoding(EncodingType.SPARSE).build();
+    HyperLogLog result = newHyperLogLog(p, bitSize);
+    if (bitSize == 0) {
       int numRegisterEntries = (int) readVulong(in);
       int[] reg = new int[numRegisterEntries];
       int prev = 0;
 
       // reconstruct the sparse map from delta encoded and varint input stream
-      if (numRegisterEntries > 0) {
-        prev = (int) readVulong(in);
-        reg[0] = prev;
-      }
-      int delta = 0;
-      int curr = 0;
-      for (int i = 1; i < numRegisterEntries; i++) {
-        delta = (int) readVulong(in);
-        curr = prev + delta;
-        reg[i] = curr;
-        prev = curr;
+      for (int i = 0; i < numRegisterEntries; i++) {
+        prev += (int) readVulong(in);
+        reg[i] = prev;
       }
       result.setHLLSparseRegister(reg);
     } else {
+      // read the bitpacked registers in bulk and unpack them from memory
+      int m = 1 << p;
+      byte[] packed = new byte[getBitpackedSize(m, bitSize)];
+      readFully(in, packed);
+      result.setHLLDenseRegister(unpackHLLRegister(ByteBuffer.wrap(packed), m, bitSize));
+    }
 
-      // explicitly disable bit packing
-      if (bitSize == 8) {
-        result = HyperLogLog.builder().setNumRegisterIndexBits(p)
-            .setEncoding(EncodingType.DENSE).enableBitPacking(false).build();
-      } else {
-        result = HyperLogLog.builder().setNumRegisterIndexBits(p)
-            .setEncoding(EncodingType.DENSE).enableBitPacking(true).build();
+    result.setCount(estCount);
+
+    return result;
+  }
+
+  /**
+   * Deserializes hyperloglog from the specified buffer starting at its
+   * position. The position is advanced to the end of the serialized
+   * hyperloglog.
+   * @param in
+   *          - buffer with serialized hyperloglog
+   * @return deserialized hyperloglog
+   */
+  public static HyperLogLog deserializeHLL(ByteBuffer in) {
+    checkMagicString(in);
+    int fourthByte = in.get() & 0xff;
+    int p = fourthByte >>> 4;
+    int bitSize = getBitSize(fourthByte);
+
+    // estimated count
+    long estCount = readVulong(in);
+
+    HyperLogLog result = newHyperLogLog(p, bitSize);
+    if (bitSize == 0) {
+      int numRegisterEntries = (int) readVulong(in);
+      int[] reg = new int[numRegisterEntries];
+      int prev = 0;
+      for (int i = 0; i < numRegisterEntries; i++) {
+        prev += (int) readVulong(in);
+        reg[i] = prev;
       }
-      int m = 1 << p;
-      byte[] register = unpackHLLRegister(in, m, bitSize);
-      result.setHLLDenseRegister(register);
+      result.setHLLSparseRegister(reg);
+    } else {
+      result.setHLLDenseRegister(unpackHLLRegister(in, 1 << p, bitSize));
     }
 
     result.setCount(estCount);
@@ -196,97 +259,398 @@ public class HyperLogLogUtils {
     return result;
   }
 
-  private static void bitpackHLLRegister(OutputStream out, byte[] register, int bitWidth)
-      throws IOException {
-    int bitsLeft = 8;
-    byte current = 0;
+  /**
+   * @param fourthByte
+   *          - fourth byte of header
+   * @return 0 for sparse encoding, else number of bits per dense register
+   */
+  static int getBitSize(int fourthByte) {
+    int enc = fourthByte & 7;
+    // 7 - bit packing disabled
+    return enc == 7 ? 8 : enc;
+  }
+
+  private static HyperLogLog newHyperLogLog(int p, int bitSize) {
+    if (bitSize == 0) {
+      return HyperLogLog.builder().setNumRegisterIndexBits(p)
+          .setEncoding(EncodingType.SPARSE).build();
+    }
 
+    // explicitly disable bit packing
+    return HyperLogLog.builder().setNumRegisterIndexBits(p)
+        .setEncoding(EncodingType.DENSE).enableBitPacking(bitSize != 8).build();
+  }
+
+  /**
+   * Bitpacks registers most significant bit first. Packed bits are collected
+   * in a long and written 8 bytes at a time.
+   */
+  private static void bitpackHLLRegister(ByteBuffer out, byte[] register, int bitWidth) {
     if (bitWidth == 8) {
-      fastPathWrite(out, register);
+      out.put(register);
       return;
     }
 
-    // write the blob
-    for (byte value : register) {
-      int bitsToWrite = bitWidth;
-      while (bitsToWrite > bitsLeft) {
-        // add the bits to the bottom of the current word
-        current |= value >>> (bitsToWrite - bitsLeft);
-        // subtract out the bits we just added
-        bitsToWrite -= bitsLeft;
-        // zero out the bits above bitsToWrite
-        value &= (1 << bitsToWrite) - 1;
-        out.write(current);
-        current = 0;
-        bitsLeft = 8;
-      }
-      bitsLeft -= bitsToWrite;
-      current |= value << bitsLeft;
-      if (bitsLeft == 0) {
-        out.write(current);
-        current = 0;
-        bitsLeft = 8;
+    final long mask = (1L << bitWidth) - 1;
+    long word = 0;
+    int bits = 0;
+    for (byte b : register) {
+      final long value = b & mask;
+      final int free = Long.SIZE - bits;
+      if (bitWidth < free) {
+        word = (word << bitWidth) | value;
+        bits += bitWidth;
+      } else {
+        // fill the word with the upper bits of value and carry the lower bits
+        final int carry = bitWidth - free;
+        putBigEndianLong(out, (word << free) | (value >>> carry));
+        word = value & ((1L << carry) - 1);
+        bits = carry;
       }
     }
 
-    out.flush();
-  }
-
-  private static void fastPathWrite(OutputStream out, byte[] register) throws IOException {
-    for (byte b : register) {
-      out.write(b);
+    // write the remaining whole bytes (registers always end on a byte boundary)
+    for (int shift = bits - 8; shift >= 0; shift -= 8) {
+      out.put((byte) (word >>> shift));
     }
   }
 
   /**
    * Unpack the bitpacked HyperLogLog register.
    * @param in
-   *          - input stream
+   *          - buffer with bitpacked registers at its position
    * @param length
-   *          - serialized length
+   *          - number of registers
+   * @param bitSize
+   *          - bits per register
    * @return unpacked HLL register
-   * @throws IOException
    */
-  private static byte[] unpackHLLRegister(InputStream in, int length, int bitSize)
-      throws IOException {
-    int mask = (1 << bitSize) - 1;
-    int bitsLeft = 8;
-
+  private static byte[] unpackHLLRegister(ByteBuffer in, int length, int bitSize) {
+    byte[] output = new byte[length];
     if (bitSize == 8) {
-      return fastPathRead(in, length);
+      in.get(output);
+      return output;
     }
 
-    byte current = (byte) (0xff & in.read());
-
-    byte[] output = new byte[length];
+    PackedRegisterReader reader = new PackedRegisterReader(in, length, bitSize);
     for (int i = 0; i < output.length; i++) {
-      byte result = 0;
-      int bitsLeftToRead = bitSize;
-      while (bitsLeftToRead > bitsLeft) {
-        result <<= bitsLeft;
-        result |= current & ((1 << bitsLeft) - 1);
-        bitsLeftToRead -= bitsLeft;
-        current = (byte) (0xff & in.read());
-        bitsLeft = 8;
+      output[i] = reader.next();
+    }
+    return output;
+  }
+
+  /**
+   * Reads bitpacked registers one at a time, most significant bit first. The
+   * packed bits are read 8 bytes at a time, but never past the registers.
+   */
+  private static final class PackedRegisterReader {
+    private final ByteBuffer in;
+    private final int bitSize;
+    private final long mask;
+    private int bytesLeft;
+    private long word;
+    private int bits;
+
+    PackedRegisterReader(ByteBuffer in, int numRegisters, int bitSize) {
+      this.in = in;
+      this.bitSize = bitSize;
+      this.mask = (1L << bitSize) - 1;
+      this.bytesLeft = getBitpackedSize(numRegisters, bitSize);
+    }
+
+    byte next() {
+      if (bits >= bitSize) {
+        bits -= bitSize;
+        return (byte) ((word >>> bits) & mask);
       }
-      if (bitsLeftToRead > 0) {
-        result <<= bitsLeftToRead;
-        bitsLeft -= bitsLeftToRead;
-        result |= (current >>> bitsLeft) & ((1 << bitsLeftToRead) - 1);
+
+      // lower bits of the register are in the next word
+      final long next;
+      int nextBits;
+      if (bytesLeft >= Long.BYTES) {
+        next = getBigEndianLong(in);
+        nextBits = Long.SIZE;
+        bytesLeft -= Long.BYTES;
+      } else {
+        next = in.get() & 0xffL;
+        nextBits = 8;
+        bytesLeft--;
       }
-      output[i] = (byte) (result & mask);
+      final int need = bitSize - bits;
+      nextBits -= need;
+      final long high = (word & ((1L << bits) - 1)) << need;
+      final byte value = (byte) ((high | (next >>> nextBits)) & mask);
+      word = next;
+      bits = nextBits;
+      return value;
+    }
+  }
+
+  /**
+   * Decodes delta and variable length encoded sparse entries.
+   */
+  private static final class SparseEntryReader implements PrimitiveIterator.OfInt {
+    private final ByteBuffer in;
+    private int remaining;
+    private int prev;
+
+    SparseEntryReader(ByteBuffer in, int numEntries) {
+      this.in = in;
+      this.remaining = numEntries;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override
+    public int nextInt() {
+      if (remaining-- <= 0) {
+        throw new NoSuchElementException();
+      }
+      prev += (int) readVulong(in);
+      return prev;
     }
-    return output;
   }
 
-  private static byte[] fastPathRead(InputStream in, int length) throws IOException {
-    byte[] result = new byte[length];
-    for (int i = 0; i < length; i++) {
-      result[i] = (byte) in.read();
+  /**
+   * Merges the serialized hyperloglog in the specified buffer to the target
+   * hyperloglog. This is same as target.merge(deserializeHLL(serialized)), but
+   * the registers are decoded straight into the registers of the target
+   * without deserializing the hyperloglog. The position of the buffer is
+   * advanced to the end of the serialized hyperloglog.
+   * @param target
+   *          - hyperloglog to merge to
+   * @param serialized
+   *          - buffer with serialized hyperloglog at its position
+   * @throws IllegalArgumentException - when the serialized hyperloglog has
+   *           smaller p than the target
+   */
+  public static void mergeSerialized(HyperLogLog target, ByteBuffer serialized) {
+    checkMagicString(serialized);
+    int fourthByte = serialized.get() & 0xff;
+    int p = fourthByte >>> 4;
+    int bitSize = getBitSize(fourthByte);
+    int targetP = target.getNumRegisterIndexBits();
+    if (p < targetP) {
+      throw new IllegalArgumentException("HyperLogLog cannot merge a smaller p into a larger one : "
+          + p + " target p: " + targetP);
+    }
+
+    // estimated count is not used
+    readVulong(serialized);
+
+    if (bitSize == 0) {
+      int numRegisterEntries = (int) readVulong(serialized);
+      SparseEntryReader entries = new SparseEntryReader(serialized, numRegisterEntries);
+      if (p == targetP) {
+        target.mergeSparseEntries(entries, numRegisterEntries);
+      } else {
+        // same as squashing the sparse register with HLLSparseRegister.extractLowBitsTo()
+        AbstractHLLDenseRegister dense = target.getDenseRegisterForMerge();
+        while (entries.hasNext()) {
+          int entry = entries.nextInt();
+          int idx = entry >>> HLLConstants.Q_PRIME_VALUE;
+          int lr = entry & ((1 << HLLConstants.Q_PRIME_VALUE) - 1);
+          dense.add((long) ((1 << (p + lr - 1)) | idx));
+        }
+      }
+    } else {
+      AbstractHLLDenseRegister dense = target.getDenseRegisterForMerge();
+      int m = 1 << p;
+      PackedRegisterReader reader = bitSize == 8 ? null
+          : new PackedRegisterReader(serialized, m, bitSize);
+      for (int idx = 0; idx < m; idx++) {
+        byte lr = reader == null ? serialized.get() : reader.next();
+        if (lr == 0) {
+          continue;
+        }
+        if (p == targetP) {
+          dense.set(idx, lr);
+        } else {
+          // same as squashing the dense register with extractLowBitsTo()
+          dense.add((long) ((1 << (p + lr - 1)) | idx));
+        }
+      }
+
+      // deserialized registers without bit packing disable bit packing of the
+      // target on merge
+      if (bitSize == 8 && p == targetP) {
+        dense.mergeMaxRegisterValue(0xff);
+      }
+    }
+  }
+
+  /**
+   * Merges two serialized DENSE hyperloglogs with the same p and bit width to
+   * a new serialized hyperloglog, in a single pass over the bitpacked
+   * registers and without creating any objects. The estimated count of the
+   * result is recomputed from the merged registers. The result is same as
+   * serializing the merge of the deserialized hyperloglogs.
+   *
+   * Registers are merged 8 at a time, as 8 registers of n bits are packed in
+   * exactly n bytes. The merged registers are written after space reserved
+   * for the estimated count, which is known only after the last register. If
+   * the estimated count does not fit the reserved space the registers are
+   * moved in place, so out requires up to 9 bytes more than the result.
+   * @param first
+   *          - buffer with serialized hyperloglog at its position
+   * @param second
+   *          - buffer with serialized hyperloglog at its position
+   * @param out
+   *          - buffer to write the merged hyperloglog to
+   * @throws IllegalArgumentException - when the hyperloglogs are not DENSE or
+   *           differ in p or bit width
+   * @throws BufferOverflowException - when out does not have
+   *           getMaxSerializedSize(p, bitWidth) bytes remaining
+   */
+  public static void mergeSerialized(ByteBuffer first, ByteBuffer second, ByteBuffer out) {
+    checkMagicString(first);
+    int fourthByte = first.get() & 0xff;
+    long firstCount = readVulong(first);
+    checkMagicString(second);
+    int secondFourthByte = second.get() & 0xff;
+    long secondCount = readVulong(second);
+
+    int p = fourthByte >>> 4;
+    int bitSize = getBitSize(fourthByte);
+    if (fourthByte != secondFourthByte) {
+      throw new IllegalArgumentException("Serialized HyperLogLogs with different p or bit width "
+          + "cannot be merged. p: " + p + ", " + (secondFourthByte >>> 4) + " bit width: "
+          + bitSize + ", " + getBitSize(secondFourthByte));
+    }
+    if (bitSize == 0 || p < HLLConstants.MIN_P_VALUE || p > HLLConstants.MAX_P_VALUE) {
+      throw new IllegalArgumentException("Only serialized DENSE HyperLogLogs can be merged");
+    }
+
+    int m = 1 << p;
+    int packedSize = getBitpackedSize(m, bitSize);
+    if (out.remaining() < MAGIC.length + 1 + MAX_VULONG_SIZE + packedSize) {
+      throw new BufferOverflowException();
+    }
+
+    // write header
+    int start = out.position();
+    out.put(MAGIC);
+    out.put((byte) fourthByte);
+    int countStart = out.position();
+
+    // merged count is usually in the same range as the larger count
+    int reservedSize = getVulongSize(Math.max(firstCount, secondCount));
+    out.position(countStart + reservedSize);
+
+    final long mask = (1L << bitSize) - 1;
+    double sum = 0;
+    long numZeroes = 0;
+    for (int i = 0; i < m; i += 8) {
+      final long a = readBytes(first, bitSize);
+      final long b = readBytes(second, bitSize);
+      long merged = 0;
+      for (int shift = 7 * bitSize; shift >= 0; shift -= bitSize) {
+        final int value = (int) Math.max((a >>> shift) & mask, (b >>> shift) & mask);
+        merged = (merged << bitSize) | value;
+        sum += HLLConstants.inversePow2Data[value];
+        if (value == 0) {
+          numZeroes++;
+        }
+      }
+      writeBytes(out, merged, bitSize);
+    }
+
+    long count = getEstimator(p).estimateDense(sum, numZeroes);
+    int countSize = getVulongSize(count);
+    if (countSize != reservedSize) {
+      moveBytes(out, countStart + reservedSize, countStart + countSize, packedSize);
+    }
+    out.position(countStart);
+    writeVulong(out, count);
+    out.position(countStart + countSize + packedSize);
+  }
+
+  /**
+   * @param p
+   *          - number of register index bits
+   * @param bitWidth
+   *          - bits per register (8 if bit packing is disabled)
+   * @return upper bound of the size of a serialized DENSE hyperloglog, for any
+   *         estimated count
+   */
+  public static int getMaxSerializedSize(int p, int bitWidth) {
+    return MAGIC.length + 1 + MAX_VULONG_SIZE + getBitpackedSize(1 << p, bitWidth);
+  }
+
+  // reads n bytes as a big endian long
+  private static long readBytes(ByteBuffer in, int n) {
+    if (n == Long.BYTES) {
+      return getBigEndianLong(in);
+    }
+    long result = 0;
+    for (int i = 0; i < n; i++) {
+      result = (result << 8) | (in.get() & 0xff);
     }
     return result;
   }
 
+  // writes the lower n bytes of value big endian
+  private static void writeBytes(ByteBuffer out, long value, int n) {
+    if (n == Long.BYTES) {
+      putBigEndianLong(out, value);
+      return;
+    }
+    for (int shift = (n - 1) * 8; shift >= 0; shift -= 8) {
+      out.put((byte) (value >>> shift));
+    }
+  }
+
+  // bitpacked registers are big endian (most significant bit first) whatever
+  // the byte order of the buffer
+  private static long getBigEndianLong(ByteBuffer in) {
+    final long value = in.getLong();
+    return in.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value);
+  }
+
+  private static void putBigEndianLong(ByteBuffer out, long value) {
+    out.putLong(out.order() == ByteOrder.BIG_ENDIAN ? value : Long.reverseBytes(value));
+  }
+
+  // same as System.arraycopy() within a buffer, using absolute offsets
+  private static void moveBytes(ByteBuffer buffer, int src, int dst, int length) {
+    if (buffer.hasArray()) {
+      int offset = buffer.arrayOffset();
+      System.arraycopy(buffer.array(), offset + src, buffer.array(), offset + dst, length);
+    } else if (dst < src) {
+      for (int i = 0; i < length; i++) {
+        buffer.put(dst + i, buffer.get(src + i));
+      }
+    } else {
+      for (int i = length - 1; i >= 0; i--) {
+        buffer.put(dst + i, buffer.get(src + i));
+      }
+    }
+  }
+
+  private static HyperLogLog getEstimator(int p) {
+    HyperLogLog estimator = ESTIMATORS.get(p);
+    if (estimator == null) {
+      // estimators are stateless, so racing threads may create one each
+      estimator = HyperLogLog.builder().setNumRegisterIndexBits(p).build();
+      ESTIMATORS.set(p, estimator);
+    }
+    return estimator;
+  }
+
+  private static void readFully(InputStream in, byte[] buffer) throws IOException {
+    int offset = 0;
+    while (offset < buffer.length) {
+      int n = in.read(buffer, offset, buffer.length - offset);
+      if (n < 0) {
+        throw new EOFException("Reading HyperLogLog registers past EOF");
+      }
+      offset += n;
+    }
+  }
+
   /**
    * Get estimated cardinality without deserializing HLL
    * @param in
@@ -300,6 +664,20 @@ public class HyperLogLogUtils {
     return readVulong(in);
   }
 
+  /**
+   * Get estimated cardinality without deserializing HLL. The position of the
+   * buffer is not modified.
+   * @param in
+   *          - buffer with serialized HLL at its position
+   * @return - cardinality
+   */
+  public static long getEstimatedCountFromSerializedHLL(ByteBuffer in) {
+    ByteBuffer header = in.duplicate();
+    checkMagicString(header);
+    header.get();
+    return readVulong(header);
+  }
+
   /**
    * Check if the specified input stream is actually a HLL stream
    * @param in
@@ -317,6 +695,13 @@ public class HyperLogLogUtils {
     }
   }
 
+  static void checkMagicString(ByteBuffer in) {
+    if (in.remaining() < MAGIC.length + 1 || in.get() != MAGIC[0] || in.get() != MAGIC[1]
+        || in.get() != MAGIC[2]) {
+      throw new IllegalArgumentException("The input buffer is not a serialized HyperLogLog.");
+    }
+  }
+
   /**
    * Minimum bits required to encode the specified value
    * @param val
@@ -345,26 +730,6 @@ public class HyperLogLogUtils {
     return err;
   }
 
-  /**
-   * Write variable length encoded longs to output stream
-   * @param output
-   *          - out stream
-   * @param value
-   *          - long
-   * @throws IOException
-   */
-  private static void writeVulong(OutputStream output, long value) throws IOException {
-    while (true) {
-      if ((value & ~0x7f) == 0) {
-        output.write((byte) value);
-        return;
-      } else {
-        output.write((byte) (0x80 | (value & 0x7f)));
-        value >>>= 7;
-      }
-    }
-  }
-
   /**
    * Read variable length encoded longs from input stream
    * @param in
@@ -387,4 +752,38 @@ public class HyperLogLogUtils {
     return result;
   }
 
+  private static void writeVulong(ByteBuffer output, long value) {
+    while ((value & ~0x7f) != 0) {
+      output.put((byte) (0x80 | (value & 0x7f)));
+      value >>>= 7;
+    }
+    output.put((byte) value);
+  }
+
+  static long readVulong(ByteBuffer in) {
+    long result = 0;
+    long b;
+    int offset = 0;
+    do {
+      b = in.get() & 0xff;
+      result |= (0x7f & b) << offset;
+      offset += 7;
+    } while (b >= 0x80);
+    return result;
+  }
+
+  /**
+   * @param value
+   *          - long
+   * @return number of bytes used by variable length encoding of value
+   */
+  private static int getVulongSize(long value) {
+    int size = 1;
+    while ((value & ~0x7f) != 0) {
+      size++;
+      value >>>= 7;
+    }
+    return size;
+  }
+
 }
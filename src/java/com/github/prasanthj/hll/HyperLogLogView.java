@@ -0,0 +1,125 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import java.nio.ByteBuffer;
+
+import com.github.prasanthj.hll.HyperLogLog.EncodingType;
+
+/**
+ * <pre>
+ * Read-only view of a serialized hyperloglog. Only the header is read when
+ * the view is created, so count(), getNumRegisterIndexBits() and
+ * getEncoding() do not decode the registers. count() returns the estimated
+ * count stored at serialization.
+ *
+ * Registers are decoded only when they are needed: mergeTo() decodes them
+ * straight into the registers of the target and toHyperLogLog() deserializes
+ * a mutable copy. The view does not copy the serialized bytes, so they
+ * should not be modified while the view is in use.
+ * </pre>
+ */
+public class HyperLogLogView {
+  // serialized hyperloglog from position 0
+  private final ByteBuffer serialized;
+  private final int p;
+  private final int bitWidth;
+  private final long count;
+
+  /**
+   * Creates view of the serialized hyperloglog at the position of the buffer.
+   * The position of the buffer is not modified.
+   * @param serialized
+   *          - buffer with serialized hyperloglog at its position
+   * @throws IllegalArgumentException - when the buffer does not contain a
+   *           serialized hyperloglog
+   */
+  public HyperLogLogView(ByteBuffer serialized) {
+    this.serialized = serialized.slice();
+    ByteBuffer header = this.serialized.duplicate();
+    HyperLogLogUtils.checkMagicString(header);
+    int fourthByte = header.get() & 0xff;
+    this.p = fourthByte >>> 4;
+    if (p < HLLConstants.MIN_P_VALUE || p > HLLConstants.MAX_P_VALUE) {
+      throw new IllegalArgumentException("Invalid p value in serialized HyperLogLog: " + p);
+    }
+    this.bitWidth = HyperLogLogUtils.getBitSize(fourthByte);
+    this.count = HyperLogLogUtils.readVulong(header);
+  }
+
+  /**
+   * @param serialized
+   *          - serialized hyperloglog
+   */
+  public HyperLogLogView(byte[] serialized) {
+    this(ByteBuffer.wrap(serialized));
+  }
+
+  /**
+   * @return estimated count stored in the serialized hyperloglog
+   */
+  public long count() {
+    return count;
+  }
+
+  public int getNumRegisterIndexBits() {
+    return p;
+  }
+
+  public EncodingType getEncoding() {
+    return bitWidth == 0 ? EncodingType.SPARSE : EncodingType.DENSE;
+  }
+
+  /**
+   * @return bits per serialized DENSE register (8 if bit packing is
+   *         disabled), 0 for SPARSE encoding
+   */
+  public int getBitWidth() {
+    return bitWidth;
+  }
+
+  /**
+   * Merges the serialized registers to the target hyperloglog, without
+   * deserializing the hyperloglog.
+   * @param target
+   *          - hyperloglog to merge to
+   * @throws IllegalArgumentException - when p of target is larger
+   */
+  public void mergeTo(HyperLogLog target) {
+    HyperLogLogUtils.mergeSerialized(target, serialized.duplicate());
+  }
+
+  /**
+   * @return new mutable hyperloglog deserialized from the view
+   */
+  public HyperLogLog toHyperLogLog() {
+    return HyperLogLogUtils.deserializeHLL(serialized.duplicate());
+  }
+
+  /**
+   * @return read-only buffer with the serialized hyperloglog from position 0
+   */
+  public ByteBuffer getBuffer() {
+    return serialized.asReadOnlyBuffer();
+  }
+
+  @Override
+  public String toString() {
+    return "HyperLogLogView - Encoding: " + getEncoding() + ", p: " + p
+        + ", estimatedCardinality: " + count;
+  }
+}
@@ -185,6 +185,86 @@ public class Murmur3 {
     return hash;
   }
 
+  /**
+   * Murmur3 64-bit variant for a long value. Produces the same hashcode as
+   * hash64(byte[]) on the big-endian bytes of the value (as written by
+   * ByteBuffer.putLong()) without allocating or copying to a byte array.
+   *
+   * @param data - input long
+   * @return - hashcode
+   */
+  public static long hash64(long data) {
+    long hash = DEFAULT_SEED;
+    // hash64(byte[]) reads blocks in little endian order
+    long k = Long.reverseBytes(data);
+
+    // mix functions
+    k *= C1;
+    k = Long.rotateLeft(k, R1);
+    k *= C2;
+    hash ^= k;
+    hash = Long.rotateLeft(hash, R2) * M + N1;
+
+    // finalization
+    hash ^= Long.BYTES;
+    hash = fmix64(hash);
+
+    return hash;
+  }
+
+  /**
+   * Murmur3 64-bit variant for an int value. Produces the same hashcode as
+   * hash64(byte[]) on the big-endian bytes of the value (as written by
+   * ByteBuffer.putInt()).
+   *
+   * @param data - input int
+   * @return - hashcode
+   */
+  public static long hash64(int data) {
+    long k1 = Integer.reverseBytes(data) & 0xffffffffL;
+    return hash64Tail(k1, Integer.BYTES);
+  }
+
+  /**
+   * Murmur3 64-bit variant for a short value. Produces the same hashcode as
+   * hash64(byte[]) on the big-endian bytes of the value (as written by
+   * ByteBuffer.putShort()).
+   *
+   * @param data - input short
+   * @return - hashcode
+   */
+  public static long hash64(short data) {
+    long k1 = Short.reverseBytes(data) & 0xffffL;
+    return hash64Tail(k1, Short.BYTES);
+  }
+
+  /**
+   * Murmur3 64-bit variant for a single byte. Produces the same hashcode as
+   * hash64(new byte[]{data}).
+   *
+   * @param data - input byte
+   * @return - hashcode
+   */
+  public static long hash64(byte data) {
+    long k1 = data & 0xffL;
+    return hash64Tail(k1, Byte.BYTES);
+  }
+
+  // inputs shorter than a block are mixed entirely by the tail step of hash64
+  private static long hash64Tail(long k1, int length) {
+    long hash = DEFAULT_SEED;
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, R1);
+    k1 *= C2;
+    hash ^= k1;
+
+    // finalization
+    hash ^= length;
+    hash = fmix64(hash);
+
+    return hash;
+  }
+
   /**
    * Murmur3 128-bit variant.
    *
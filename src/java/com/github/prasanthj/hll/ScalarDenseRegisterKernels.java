@@ -0,0 +1,105 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Dense register loops that work on 8 registers at a time using a long view
+ * of the register bytes.
+ */
+class ScalarDenseRegisterKernels extends DenseRegisterKernels {
+  // register values in a byte never exceed 127, so the MSB of each byte is
+  // free to be used as a borrow guard for word-at-a-time comparisons
+  private static final long MSB_MASK = 0x8080808080808080L;
+
+  @Override
+  void mergeMax(byte[] register, byte[] other, int[] histogram) {
+    // compare 8 registers at a time and only update the words and histogram
+    // entries of registers where the other register value is greater
+    final ByteBuffer words = ByteBuffer.wrap(register).order(ByteOrder.LITTLE_ENDIAN);
+    final ByteBuffer inWords = ByteBuffer.wrap(other).order(ByteOrder.LITTLE_ENDIAN);
+    final int bound = register.length & ~(Long.BYTES - 1);
+    int i = 0;
+    for (; i < bound; i += Long.BYTES) {
+      final long cw = words.getLong(i);
+      final long ow = inWords.getLong(i);
+      long gt = greaterThan(ow, cw);
+      if (gt != 0) {
+        final long mask = (gt >>> 7) * 0xffL;
+        words.putLong(i, (cw & ~mask) | (ow & mask));
+        while (gt != 0) {
+          final int shift = Long.numberOfTrailingZeros(gt) - 7;
+          histogram[(int) ((cw >>> shift) & 0xff)]--;
+          histogram[(int) ((ow >>> shift) & 0xff)]++;
+          gt &= gt - 1;
+        }
+      }
+    }
+
+    for (; i < register.length; i++) {
+      if (other[i] > register[i]) {
+        histogram[register[i]]--;
+        histogram[other[i]]++;
+        register[i] = other[i];
+      }
+    }
+  }
+
+  @Override
+  void mergeMax(byte[] register, byte[] other, int from, int to) {
+    final ByteBuffer words = ByteBuffer.wrap(register).order(ByteOrder.LITTLE_ENDIAN);
+    final ByteBuffer inWords = ByteBuffer.wrap(other).order(ByteOrder.LITTLE_ENDIAN);
+    final int bound = from + ((to - from) & ~(Long.BYTES - 1));
+    int i = from;
+    for (; i < bound; i += Long.BYTES) {
+      final long cw = words.getLong(i);
+      final long ow = inWords.getLong(i);
+      final long gt = greaterThan(ow, cw);
+      if (gt != 0) {
+        final long mask = (gt >>> 7) * 0xffL;
+        words.putLong(i, (cw & ~mask) | (ow & mask));
+      }
+    }
+
+    for (; i < to; i++) {
+      if (other[i] > register[i]) {
+        register[i] = other[i];
+      }
+    }
+  }
+
+  @Override
+  void histogram(byte[] register, int[] histogram) {
+    for (byte b : register) {
+      histogram[b]++;
+    }
+  }
+
+  /**
+   * Compares the 8 bytes of the specified words. Byte values should be less
+   * than 128.
+   * @return word with the MSB of a byte set if the byte in a is greater than
+   *         the byte in b
+   */
+  static long greaterThan(long a, long b) {
+    // MSB of (b | 0x80) - a is set if b >= a. No borrow can cross bytes
+    // as (b | 0x80) is always greater than a.
+    return ~((b | MSB_MASK) - a) & MSB_MASK;
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import java.nio.charset.Charset;
+
+/**
+ * <pre>
+ * Thread-safe hyperloglog for write-heavy, read-rarely workloads. Adds from
+ * each thread go to one of N hyperloglog stripes selected by thread id, so
+ * threads do not contend with each other while adding. The stripes are merged
+ * using HyperLogLog.merge() only when count() or toHyperLogLog() is called.
+ *
+ * The options of the builder are copied when the striped hyperloglog is
+ * created, so later changes to the builder do not affect it. The merged
+ * result is a regular HyperLogLog built with the same builder options, so
+ * its estimate and its HyperLogLogUtils.serializeHLL() output are the same as
+ * that of a single hyperloglog to which all values were added. Values are
+ * hashed the same way as by HyperLogLog.
+ *
+ * Example:
+ *   StripedHyperLogLog hll = new StripedHyperLogLog(HyperLogLog.builder());
+ *   // from any number of threads
+ *   hll.addLong(val);
+ *   // on read
+ *   HyperLogLogUtils.serializeHLL(out, hll.toHyperLogLog());
+ * </pre>
+ */
+public class StripedHyperLogLog {
+  private final HyperLogLog.HyperLogLogBuilder builder;
+  private final HyperLogLog[] stripes;
+  private final int stripeMask;
+
+  /**
+   * Creates striped hyperloglog with number of stripes equal to the number of
+   * available processors (rounded up to power of 2).
+   * @param builder
+   *          - builder used to create the stripes and the merged hyperloglog
+   * @throws IllegalArgumentException - when the builder has a dense register
+   *           buffer, which cannot be shared by the stripes
+   */
+  public StripedHyperLogLog(HyperLogLog.HyperLogLogBuilder builder) {
+    this(builder, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param builder
+   *          - builder used to create the stripes and the merged hyperloglog
+   * @param numStripes
+   *          - number of stripes (rounded up to power of 2)
+   * @throws IllegalArgumentException - when the builder has a dense register
+   *           buffer, which cannot be shared by the stripes
+   */
+  public StripedHyperLogLog(HyperLogLog.HyperLogLogBuilder builder, int numStripes) {
+    if (numStripes <= 0) {
+      throw new IllegalArgumentException("Number of stripes should be positive: " + numStripes);
+    }
+    if (builder.getDenseRegisterBuffer() != null) {
+      throw new IllegalArgumentException(
+          "StripedHyperLogLog cannot be created with a dense register buffer");
+    }
+    int n = Integer.highestOneBit(numStripes);
+    if (n < numStripes) {
+      n <<= 1;
+    }
+    this.builder = builder.copy();
+    this.stripes = new HyperLogLog[n];
+    this.stripeMask = n - 1;
+    for (int i = 0; i < n; i++) {
+      stripes[i] = this.builder.build();
+    }
+  }
+
+  private HyperLogLog currentStripe() {
+    return stripes[(int) Thread.currentThread().getId() & stripeMask];
+  }
+
+  public void addBoolean(boolean val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addByte(byte val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addBytes(byte[] val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addShort(short val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addInt(int val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addLong(long val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addFloat(float val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addDouble(double val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addChar(char val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  /**
+   * Java's default charset will be used for strings.
+   * @param val
+   *          - input string
+   */
+  public void addString(String val) {
+    add(HyperLogLog.hash(val));
+  }
+
+  public void addString(String val, Charset charset) {
+    add(HyperLogLog.hash(val, charset));
+  }
+
+  public void add(long hashcode) {
+    final HyperLogLog stripe = currentStripe();
+    // uncontended unless more threads than stripes map to the same stripe
+    synchronized (stripe) {
+      stripe.add(hashcode);
+    }
+  }
+
+  /**
+   * Merge the specified hyperloglog into the stripe of the calling thread.
+   * @param hll
+   *          - hyperloglog to be merged
+   */
+  public void merge(HyperLogLog hll) {
+    final HyperLogLog stripe = currentStripe();
+    synchronized (stripe) {
+      stripe.merge(hll);
+    }
+  }
+
+  /**
+   * Merges all stripes into a new hyperloglog. Values added concurrently with
+   * this call may or may not be reflected in the result.
+   * @return merged hyperloglog
+   */
+  public HyperLogLog toHyperLogLog() {
+    HyperLogLog result = builder.build();
+    for (HyperLogLog stripe : stripes) {
+      synchronized (stripe) {
+        result.merge(stripe);
+      }
+    }
+    return result;
+  }
+
+  public long count() {
+    return toHyperLogLog().count();
+  }
+
+  public int getNumStripes() {
+    return stripes.length;
+  }
+
+  @Override
+  public String toString() {
+    return "StripedHyperLogLog - numStripes: " + stripes.length + ", " + toHyperLogLog();
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Dense register loops using the Vector API. Processes as many registers at a
+ * time as the widest vector supported by the CPU (64 registers with AVX-512).
+ * Loaded by DenseRegisterKernels only when jdk.incubator.vector is available.
+ */
+class VectorDenseRegisterKernels extends ScalarDenseRegisterKernels {
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+  // histogram is updated per changed register if less than 1/16th of the
+  // registers change during merge, else it is recomputed
+  private static final int INCREMENTAL_UPDATE_SHIFT = 4;
+
+  @Override
+  void mergeMax(byte[] register, byte[] other, int[] histogram) {
+    final int bound = SPECIES.loopBound(register.length);
+    if (bound == 0) {
+      super.mergeMax(register, other, histogram);
+      return;
+    }
+
+    // number of registers that change decides how the histogram is updated
+    int numUpdated = 0;
+    for (int i = 0; i < bound; i += SPECIES.length()) {
+      final ByteVector cv = ByteVector.fromArray(SPECIES, register, i);
+      final ByteVector ov = ByteVector.fromArray(SPECIES, other, i);
+      numUpdated += ov.compare(VectorOperators.GT, cv).trueCount();
+    }
+
+    if (numUpdated == 0) {
+      // common case when merging into a saturated register
+      mergeTail(register, other, histogram, bound);
+    } else if (numUpdated < (register.length >>> INCREMENTAL_UPDATE_SHIFT)) {
+      // update histogram entries of only the changed registers
+      for (int i = 0; i < bound; i += SPECIES.length()) {
+        final ByteVector cv = ByteVector.fromArray(SPECIES, register, i);
+        final ByteVector ov = ByteVector.fromArray(SPECIES, other, i);
+        final VectorMask<Byte> gt = ov.compare(VectorOperators.GT, cv);
+        if (gt.anyTrue()) {
+          for (int idx = gt.firstTrue(); idx < SPECIES.length(); idx++) {
+            if (gt.laneIsSet(idx)) {
+              histogram[register[i + idx]]--;
+              histogram[other[i + idx]]++;
+            }
+          }
+          cv.max(ov).intoArray(register, i);
+        }
+      }
+      mergeTail(register, other, histogram, bound);
+    } else {
+      for (int i = 0; i < bound; i += SPECIES.length()) {
+        final ByteVector cv = ByteVector.fromArray(SPECIES, register, i);
+        final ByteVector ov = ByteVector.fromArray(SPECIES, other, i);
+        cv.max(ov).intoArray(register, i);
+      }
+      mergeTail(register, other, histogram, bound);
+      Arrays.fill(histogram, 0);
+      histogram(register, histogram);
+    }
+  }
+
+  private static void mergeTail(byte[] register, byte[] other, int[] histogram, int from) {
+    for (int i = from; i < register.length; i++) {
+      if (other[i] > register[i]) {
+        histogram[register[i]]--;
+        histogram[other[i]]++;
+        register[i] = other[i];
+      }
+    }
+  }
+
+  @Override
+  void mergeMax(byte[] register, byte[] other, int from, int to) {
+    final int bound = from + SPECIES.loopBound(to - from);
+    int i = from;
+    for (; i < bound; i += SPECIES.length()) {
+      final ByteVector cv = ByteVector.fromArray(SPECIES, register, i);
+      final ByteVector ov = ByteVector.fromArray(SPECIES, other, i);
+      cv.max(ov).intoArray(register, i);
+    }
+
+    for (; i < to; i++) {
+      if (other[i] > register[i]) {
+        register[i] = other[i];
+      }
+    }
+  }
+
+  @Override
+  void histogram(byte[] register, int[] histogram) {
+    final int bound = SPECIES.loopBound(register.length);
+    if (bound == 0) {
+      super.histogram(register, histogram);
+      return;
+    }
+
+    // register values are clustered in a small range, so count each value in
+    // the range with a vector compare instead of incrementing a counter per
+    // register
+    ByteVector minV = ByteVector.broadcast(SPECIES, Byte.MAX_VALUE);
+    ByteVector maxV = ByteVector.zero(SPECIES);
+    for (int i = 0; i < bound; i += SPECIES.length()) {
+      final ByteVector v = ByteVector.fromArray(SPECIES, register, i);
+      minV = minV.min(v);
+      maxV = maxV.max(v);
+    }
+    final int min = minV.reduceLanes(VectorOperators.MIN);
+    final int max = maxV.reduceLanes(VectorOperators.MAX);
+    for (int i = 0; i < bound; i += SPECIES.length()) {
+      final ByteVector v = ByteVector.fromArray(SPECIES, register, i);
+      for (int value = min; value <= max; value++) {
+        histogram[value] += v.compare(VectorOperators.EQ, (byte) value).trueCount();
+      }
+    }
+
+    for (int i = bound; i < register.length; i++) {
+      histogram[register[i]]++;
+    }
+  }
+
+  @Override
+  boolean isVectorized() {
+    return true;
+  }
+}
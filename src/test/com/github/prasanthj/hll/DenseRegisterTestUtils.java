@@ -0,0 +1,74 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Fixtures and assertions shared by the tests of the dense register types,
+ * which are all checked against HLLDenseRegister.
+ */
+final class DenseRegisterTestUtils {
+
+  private DenseRegisterTestUtils() {
+  }
+
+  /**
+   * Adds the same n random hashcodes to all the registers, and checks that
+   * add() returns the same for all of them.
+   */
+  static void addRandomHashcodes(Random rand, int n, HLLRegister... registers) {
+    for (int i = 0; i < n; i++) {
+      long hashcode = Murmur3.hash64(rand.nextLong());
+      boolean updated = registers[0].add(hashcode);
+      for (int j = 1; j < registers.length; j++) {
+        assertEquals(updated, registers[j].add(hashcode));
+      }
+    }
+  }
+
+  static void assertRegisterEquals(AbstractHLLDenseRegister expected,
+      AbstractHLLDenseRegister actual) {
+    assertArrayEquals(expected.getRegister(), actual.getRegister());
+    assertEquals(expected.getNumZeroes(), actual.getNumZeroes());
+    assertEquals(expected.getMaxRegisterValue(), actual.getMaxRegisterValue());
+    assertEquals(expected.getSumInversePow2(), actual.getSumInversePow2(), 0.0);
+    assertEquals(expected, actual);
+    assertEquals(expected.hashCode(), actual.hashCode());
+  }
+
+  /**
+   * Checks that hyperloglogs with different dense register types have the
+   * same count and serialized form.
+   */
+  static void assertSameHyperLogLog(HyperLogLog expected, HyperLogLog actual)
+      throws IOException {
+    assertEquals(expected.count(), actual.count());
+    assertEquals(expected, actual);
+
+    ByteArrayOutputStream expectedOut = new ByteArrayOutputStream();
+    ByteArrayOutputStream actualOut = new ByteArrayOutputStream();
+    HyperLogLogUtils.serializeHLL(expectedOut, expected);
+    HyperLogLogUtils.serializeHLL(actualOut, actual);
+    assertArrayEquals(expectedOut.toByteArray(), actualOut.toByteArray());
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static com.github.prasanthj.hll.DenseRegisterTestUtils.addRandomHashcodes;
+import static com.github.prasanthj.hll.DenseRegisterTestUtils.assertRegisterEquals;
+import static com.github.prasanthj.hll.DenseRegisterTestUtils.assertSameHyperLogLog;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestHLLByteBufferDenseRegister {
+
+  @Test
+  public void testSameAsDenseRegister() {
+    Random rand = new Random(123);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(100 + (1 << 14));
+    buffer.position(100);
+    HLLDenseRegister dense = new HLLDenseRegister(14);
+    HLLByteBufferDenseRegister offHeap = new HLLByteBufferDenseRegister(14, true, buffer);
+    addRandomHashcodes(rand, 100_000, dense, offHeap);
+    assertRegisterEquals(dense, offHeap);
+    assertEquals(100, buffer.position());
+    assertEquals(dense.get(0), buffer.get(100));
+
+    // another register over the same memory sees the same registers
+    HLLByteBufferDenseRegister wrapped = HLLByteBufferDenseRegister.wrap(14, true, buffer);
+    assertRegisterEquals(dense, wrapped);
+  }
+
+  @Test
+  public void testMerge() {
+    Random rand = new Random(42);
+    HLLDenseRegister dense1 = new HLLDenseRegister(10);
+    HLLDenseRegister dense2 = new HLLDenseRegister(10);
+    HLLByteBufferDenseRegister offHeap = new HLLByteBufferDenseRegister(10, true,
+        ByteBuffer.allocateDirect(1 << 10));
+    addRandomHashcodes(rand, 5000, dense1, offHeap);
+    addRandomHashcodes(rand, 5000, dense2);
+    offHeap.merge(dense2);
+    dense1.merge(dense2);
+    assertRegisterEquals(dense1, offHeap);
+  }
+
+  @Test
+  public void testClearsBuffer() {
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+    for (int i = 0; i < 16; i++) {
+      buffer.put(i, (byte) -1);
+    }
+    HLLByteBufferDenseRegister reg = new HLLByteBufferDenseRegister(4, true, buffer);
+    assertEquals(16, reg.getNumZeroes());
+    assertArrayEquals(new byte[16], reg.getRegister());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBufferTooSmall() {
+    new HLLByteBufferDenseRegister(10, true, ByteBuffer.allocateDirect(1 << 9));
+  }
+
+  @Test
+  public void testHyperLogLogWithBuffer() throws IOException {
+    Random rand = new Random(7);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(10 + (1 << 14));
+    buffer.position(10);
+    HyperLogLog offHeap = HyperLogLog.builder().setDenseRegisterBuffer(buffer).build();
+    // registers use the region at the position of the buffer at build time
+    buffer.position(0);
+    HyperLogLog onHeap = HyperLogLog.builder().build();
+    HyperLogLog sparse = HyperLogLog.builder().build();
+    for (int i = 0; i < 100_000; i++) {
+      long val = rand.nextLong();
+      offHeap.addLong(val);
+      onHeap.addLong(val);
+    }
+    for (int i = 0; i < 100; i++) {
+      long val = rand.nextLong();
+      sparse.addLong(val);
+      onHeap.addLong(val);
+    }
+    // merging a sparse hyperloglog should not use the buffer for conversion
+    offHeap.merge(sparse);
+
+    assertEquals(HyperLogLog.EncodingType.DENSE, offHeap.getEncoding());
+    HLLByteBufferDenseRegister reg = (HLLByteBufferDenseRegister) offHeap.getDenseRegister();
+    for (int i = 0; i < reg.size(); i++) {
+      assertEquals(reg.get(i), buffer.get(10 + i));
+    }
+    assertSameHyperLogLog(onHeap, offHeap);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBuilderBufferReused() {
+    HyperLogLog.HyperLogLogBuilder builder = HyperLogLog.builder()
+        .setDenseRegisterBuffer(ByteBuffer.allocateDirect(2 << 14));
+    builder.build();
+    // a second hyperloglog would overwrite the registers of the first one
+    builder.build();
+  }
+
+  @Test
+  public void testBuilderWithNewBuffer() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(2 << 14);
+    HyperLogLog.HyperLogLogBuilder builder = HyperLogLog.builder()
+        .setEncoding(HyperLogLog.EncodingType.DENSE);
+    HyperLogLog first = builder.setDenseRegisterBuffer(buffer).build();
+    buffer.position(1 << 14);
+    HyperLogLog second = builder.setDenseRegisterBuffer(buffer).build();
+    HyperLogLog expected = HyperLogLog.builder().build();
+    for (int i = 0; i < 50_000; i++) {
+      first.addInt(i);
+      second.addInt(-i);
+      expected.addInt(i);
+    }
+    assertSameHyperLogLog(expected, first);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHyperLogLogBufferTooSmall() {
+    HyperLogLog.builder().setDenseRegisterBuffer(ByteBuffer.allocateDirect(1 << 13)).build();
+  }
+}
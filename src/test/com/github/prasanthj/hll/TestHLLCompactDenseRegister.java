@@ -0,0 +1,120 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static com.github.prasanthj.hll.DenseRegisterTestUtils.addRandomHashcodes;
+import static com.github.prasanthj.hll.DenseRegisterTestUtils.assertRegisterEquals;
+import static com.github.prasanthj.hll.DenseRegisterTestUtils.assertSameHyperLogLog;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestHLLCompactDenseRegister {
+
+  @Test
+  public void testSameAsDenseRegister() {
+    Random rand = new Random(123);
+    HLLDenseRegister dense = new HLLDenseRegister(10);
+    HLLCompactDenseRegister compact = new HLLCompactDenseRegister(10);
+    // enough hashcodes to move the base up a few times
+    addRandomHashcodes(rand, 1_000_000, dense, compact);
+    assertTrue(compact.getBase() > 0);
+    assertRegisterEquals(dense, compact);
+    assertEquals(512, compact.getSizeInBytes());
+  }
+
+  @Test
+  public void testOverflowAndRebase() {
+    HLLCompactDenseRegister compact = new HLLCompactDenseRegister(4);
+    compact.set(0, (byte) 14);
+    compact.set(1, (byte) 15);
+    compact.set(2, (byte) 28);
+    assertEquals(0, compact.getBase());
+    assertEquals(2, compact.getNumOverflows());
+    assertEquals(14, compact.get(0));
+    assertEquals(15, compact.get(1));
+    assertEquals(28, compact.get(2));
+
+    // registers move out of overflow table when base moves up
+    for (int i = 3; i < compact.size(); i++) {
+      compact.set(i, (byte) 20);
+    }
+    assertEquals(14, compact.getBase());
+    assertEquals(0, compact.getNumOverflows());
+    compact.set(0, (byte) 30);
+    assertEquals(15, compact.getBase());
+    assertEquals(1, compact.getNumOverflows());
+
+    byte[] expected = new byte[16];
+    Arrays.fill(expected, (byte) 20);
+    expected[0] = 30;
+    expected[1] = 15;
+    expected[2] = 28;
+    assertArrayEquals(expected, compact.getRegister());
+    assertEquals(0, compact.getNumZeroes());
+    assertEquals(30, compact.getMaxRegisterValue());
+  }
+
+  @Test
+  public void testMerge() {
+    Random rand = new Random(42);
+    HLLDenseRegister dense1 = new HLLDenseRegister(10);
+    HLLDenseRegister dense2 = new HLLDenseRegister(10);
+    HLLCompactDenseRegister compact1 = new HLLCompactDenseRegister(10);
+    HLLCompactDenseRegister compact2 = new HLLCompactDenseRegister(10);
+    addRandomHashcodes(rand, 50_000, dense1, compact1);
+    addRandomHashcodes(rand, 50_000, dense2, compact2);
+
+    compact1.merge(compact2);
+    dense1.merge(dense2);
+    assertRegisterEquals(dense1, compact1);
+
+    HLLDenseRegister dense3 = new HLLDenseRegister(10);
+    dense3.merge(compact1);
+    assertRegisterEquals(dense1, dense3);
+  }
+
+  @Test
+  public void testHLL4SameAsHLL8() throws IOException {
+    Random rand = new Random(7);
+    HyperLogLog hll8 = HyperLogLog.builder().build();
+    HyperLogLog hll4 = HyperLogLog.builder()
+        .setDenseRegisterType(HyperLogLog.DenseRegisterType.HLL4).build();
+    HyperLogLog other4 = HyperLogLog.builder()
+        .setDenseRegisterType(HyperLogLog.DenseRegisterType.HLL4).build();
+    for (int i = 0; i < 100_000; i++) {
+      long val = rand.nextLong();
+      hll8.addLong(val);
+      hll4.addLong(val);
+    }
+    // sparse to dense conversion during merge
+    for (int i = 0; i < 100; i++) {
+      long val = rand.nextLong();
+      hll8.addLong(val);
+      other4.addLong(val);
+    }
+    hll4.merge(other4);
+    assertEquals(HLLCompactDenseRegister.class, hll4.getDenseRegister().getClass());
+    assertSameHyperLogLog(hll8, hll4);
+  }
+}
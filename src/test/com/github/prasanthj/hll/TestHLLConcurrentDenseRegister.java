@@ -0,0 +1,168 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class TestHLLConcurrentDenseRegister {
+
+  @Test
+  public void testSameAsDenseRegister() {
+    Random rand = new Random(123);
+    HLLDenseRegister dense = new HLLDenseRegister(14);
+    HLLConcurrentDenseRegister concurrent = new HLLConcurrentDenseRegister(14);
+    for (int i = 0; i < 100_000; i++) {
+      long hashcode = Murmur3.hash64(rand.nextLong());
+      assertEquals(dense.add(hashcode), concurrent.add(hashcode));
+    }
+    assertArrayEquals(dense.getRegister(), concurrent.getRegister());
+    assertEquals(dense.getNumZeroes(), concurrent.getNumZeroes());
+    assertEquals(dense.getMaxRegisterValue(), concurrent.getMaxRegisterValue());
+    assertEquals(dense.getSumInversePow2(), concurrent.getSumInversePow2(), 0.0);
+  }
+
+  @Test
+  public void testConcurrentAdd() throws Exception {
+    final int p = 10;
+    final int numThreads = 8;
+    final int size = 200_000;
+    final HLLConcurrentDenseRegister concurrent = new HLLConcurrentDenseRegister(p);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<HLLDenseRegister>> futures = new ArrayList<>();
+      for (int t = 0; t < numThreads; t++) {
+        final int seed = t;
+        futures.add(executor.submit(() -> {
+          Random rand = new Random(seed);
+          HLLDenseRegister local = new HLLDenseRegister(p);
+          for (int i = 0; i < size; i++) {
+            long hashcode = Murmur3.hash64(rand.nextLong());
+            concurrent.add(hashcode);
+            local.add(hashcode);
+          }
+          return local;
+        }));
+      }
+
+      // no update should be lost by racing threads
+      HLLDenseRegister expected = new HLLDenseRegister(p);
+      for (Future<HLLDenseRegister> future : futures) {
+        expected.merge(future.get());
+      }
+      assertArrayEquals(expected.getRegister(), concurrent.getRegister());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testMergeAndCount() {
+    int size = 50_000;
+    HyperLogLog hll = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE).build();
+    HLLConcurrentDenseRegister concurrent = new HLLConcurrentDenseRegister(14);
+    HLLDenseRegister dense = new HLLDenseRegister(14);
+    for (int i = 0; i < size; i++) {
+      hll.addLong(i);
+      if (i % 2 == 0) {
+        concurrent.add(Murmur3.hash64((long) i));
+      } else {
+        dense.add(Murmur3.hash64((long) i));
+      }
+    }
+    concurrent.merge(dense);
+
+    assertEquals(hll.count(), concurrent.count());
+    assertEquals(hll, concurrent.toHyperLogLog());
+  }
+
+  @Test
+  public void testMergeConcurrent() {
+    HLLConcurrentDenseRegister concurrent = new HLLConcurrentDenseRegister(14);
+    HLLConcurrentDenseRegister other = new HLLConcurrentDenseRegister(14);
+    HLLDenseRegister expected = new HLLDenseRegister(14);
+    for (int i = 0; i < 50_000; i++) {
+      long hashcode = Murmur3.hash64((long) i);
+      expected.add(hashcode);
+      if (i % 3 == 0) {
+        concurrent.add(hashcode);
+      } else {
+        other.add(hashcode);
+      }
+    }
+    concurrent.merge(other);
+    assertArrayEquals(expected.getRegister(), concurrent.getRegister());
+  }
+
+  @Test
+  public void testAddValues() {
+    HyperLogLog expected = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+        .build();
+    HLLConcurrentDenseRegister concurrent = new HLLConcurrentDenseRegister(14);
+    for (int i = 0; i < 10_000; i++) {
+      concurrent.addBoolean(i % 2 == 0);
+      expected.addBoolean(i % 2 == 0);
+      concurrent.addByte((byte) i);
+      expected.addByte((byte) i);
+      concurrent.addBytes(new byte[] { (byte) i, (byte) (i >>> 8) });
+      expected.addBytes(new byte[] { (byte) i, (byte) (i >>> 8) });
+      concurrent.addShort((short) i);
+      expected.addShort((short) i);
+      concurrent.addInt(i);
+      expected.addInt(i);
+      concurrent.addLong(i);
+      expected.addLong(i);
+      concurrent.addFloat(i);
+      expected.addFloat(i);
+      concurrent.addDouble(i);
+      expected.addDouble(i);
+      concurrent.addChar((char) i);
+      expected.addChar((char) i);
+      concurrent.addString(String.valueOf(i));
+      expected.addString(String.valueOf(i));
+      concurrent.addString(String.valueOf(i), StandardCharsets.UTF_16);
+      expected.addString(String.valueOf(i), StandardCharsets.UTF_16);
+    }
+    assertEquals(expected.count(), concurrent.count());
+    assertEquals(expected, concurrent.toHyperLogLog());
+  }
+
+  @Test
+  public void testCountEmpty() {
+    HLLConcurrentDenseRegister concurrent = new HLLConcurrentDenseRegister(14);
+    HyperLogLog expected = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+        .build();
+    assertEquals(expected.count(), concurrent.count());
+    assertEquals(expected, concurrent.toHyperLogLog());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeSizeMismatch() {
+    HLLConcurrentDenseRegister concurrent = new HLLConcurrentDenseRegister(14);
+    concurrent.merge(new HLLDenseRegister(10));
+  }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.github.prasanthj.hll.HyperLogLog.DenseRegisterType;
+import com.github.prasanthj.hll.HyperLogLog.EncodingType;
+
+@RunWith(Parameterized.class)
+public class TestHLLMergeSerialized {
+  private static final int SEED = 100;
+
+  private final int targetSize;
+  private final int sourceSize;
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+      { 0, 0 }, { 0, 100 }, { 100, 0 }, { 100, 100 }, { 1000, 500 }, { 100, 5000 },
+      { 5000, 100 }, { 10000, 100000 }
+    });
+  }
+
+  public TestHLLMergeSerialized(int targetSize, int sourceSize) {
+    this.targetSize = targetSize;
+    this.sourceSize = sourceSize;
+  }
+
+  private HyperLogLog newHLL(int p, EncodingType encoding, boolean bitPacking, int size,
+      long seed) {
+    HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(encoding)
+        .enableBitPacking(bitPacking).build();
+    Random rand = new Random(seed);
+    for (int i = 0; i < size; i++) {
+      hll.addLong(rand.nextLong());
+    }
+    return hll;
+  }
+
+  private void checkMergeSerialized(HyperLogLog target, HyperLogLog expected,
+      HyperLogLog source) {
+    ByteBuffer serialized = ByteBuffer.allocate(HyperLogLogUtils.getSerializedSize(source) + 4);
+    serialized.position(2);
+    HyperLogLogUtils.serializeHLL(serialized, source);
+    int end = serialized.position();
+
+    serialized.position(2);
+    expected.merge(HyperLogLogUtils.deserializeHLL(serialized.duplicate()));
+    HyperLogLogUtils.mergeSerialized(target, serialized);
+    assertEquals(end, serialized.position());
+    assertEquals(expected.getEncoding(), target.getEncoding());
+    assertEquals(expected, target);
+    assertEquals(expected.count(), target.count());
+  }
+
+  @Test
+  public void testMergeSerialized() {
+    for (EncodingType targetEncoding : EncodingType.values()) {
+      for (EncodingType sourceEncoding : EncodingType.values()) {
+        for (boolean bitPacking : new boolean[] { true, false }) {
+          HyperLogLog target = newHLL(14, targetEncoding, true, targetSize, SEED);
+          HyperLogLog expected = newHLL(14, targetEncoding, true, targetSize, SEED);
+          HyperLogLog source = newHLL(14, sourceEncoding, bitPacking, sourceSize, SEED + 1);
+          checkMergeSerialized(target, expected, source);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMergeSerializedLargerP() {
+    for (EncodingType targetEncoding : EncodingType.values()) {
+      for (EncodingType sourceEncoding : EncodingType.values()) {
+        HyperLogLog target = newHLL(10, targetEncoding, true, targetSize, SEED);
+        HyperLogLog expected = newHLL(10, targetEncoding, true, targetSize, SEED);
+        HyperLogLog source = newHLL(14, sourceEncoding, true, sourceSize, SEED + 1);
+        checkMergeSerialized(target, expected, source);
+      }
+    }
+  }
+
+  @Test
+  public void testMergeSerializedLittleEndian() throws IOException {
+    for (EncodingType sourceEncoding : EncodingType.values()) {
+      for (boolean bitPacking : new boolean[] { true, false }) {
+        HyperLogLog target = newHLL(14, EncodingType.DENSE, true, targetSize, SEED);
+        HyperLogLog expected = newHLL(14, EncodingType.DENSE, true, targetSize, SEED);
+        HyperLogLog source = newHLL(14, sourceEncoding, bitPacking, sourceSize, SEED + 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HyperLogLogUtils.serializeHLL(out, source);
+        ByteBuffer serialized = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+        expected.merge(source);
+        HyperLogLogUtils.mergeSerialized(target, serialized);
+        assertEquals(expected, target);
+      }
+    }
+  }
+
+  @Test
+  public void testMergeSerializedOverlap() {
+    // merging the same sketch again does not change the target
+    HyperLogLog target = newHLL(14, EncodingType.SPARSE, true, targetSize, SEED);
+    HyperLogLog expected = newHLL(14, EncodingType.SPARSE, true, targetSize, SEED);
+    HyperLogLog source = newHLL(14, EncodingType.SPARSE, true, targetSize, SEED);
+    checkMergeSerialized(target, expected, source);
+    assertEquals(source, target);
+  }
+
+  @Test
+  public void testMergeSerializedDenseRegisterTypes() {
+    for (DenseRegisterType type : DenseRegisterType.values()) {
+      HyperLogLog target = HyperLogLog.builder().setEncoding(EncodingType.DENSE)
+          .setDenseRegisterType(type).build();
+      HyperLogLog expected = HyperLogLog.builder().setEncoding(EncodingType.DENSE)
+          .setDenseRegisterType(type).build();
+      Random rand = new Random(SEED);
+      for (int i = 0; i < targetSize; i++) {
+        long val = rand.nextLong();
+        target.addLong(val);
+        expected.addLong(val);
+      }
+      HyperLogLog source = newHLL(14, EncodingType.DENSE, true, sourceSize, SEED + 1);
+      checkMergeSerialized(target, expected, source);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeSerializedSmallerP() {
+    HyperLogLog source = newHLL(10, EncodingType.DENSE, true, sourceSize, SEED);
+    ByteBuffer serialized = ByteBuffer.allocate(HyperLogLogUtils.getSerializedSize(source));
+    HyperLogLogUtils.serializeHLL(serialized, source);
+    serialized.flip();
+    HyperLogLogUtils.mergeSerialized(HyperLogLog.builder().build(), serialized);
+  }
+
+  private ByteBuffer serialize(HyperLogLog hll, boolean direct) {
+    int size = HyperLogLogUtils.getSerializedSize(hll);
+    ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    HyperLogLogUtils.serializeHLL(buffer, hll);
+    buffer.flip();
+    return buffer;
+  }
+
+  private HyperLogLog newDenseHLL(boolean bitPacking, int size, long seed) {
+    HyperLogLog hll = newHLL(14, EncodingType.DENSE, bitPacking, size, seed);
+    // register with 40 trailing zeroes, so that both sketches are packed in 6 bits
+    hll.add(1L << (14 + 39));
+    return hll;
+  }
+
+  @Test
+  public void testMergeSerializedBuffers() {
+    for (boolean bitPacking : new boolean[] { true, false }) {
+      for (boolean direct : new boolean[] { true, false }) {
+        HyperLogLog first = newDenseHLL(bitPacking, targetSize, SEED);
+        HyperLogLog second = newDenseHLL(bitPacking, sourceSize, SEED + 1);
+        ByteBuffer firstBuffer = serialize(first, direct);
+        ByteBuffer secondBuffer = serialize(second, direct);
+        int bitWidth = bitPacking ? 6 : 8;
+        ByteBuffer out = direct ? ByteBuffer.allocateDirect(20 + HyperLogLogUtils
+            .getMaxSerializedSize(14, bitWidth)) : ByteBuffer.allocate(20 + HyperLogLogUtils
+            .getMaxSerializedSize(14, bitWidth));
+        out.position(20);
+        HyperLogLogUtils.mergeSerialized(firstBuffer, secondBuffer, out);
+        assertEquals(0, firstBuffer.remaining());
+        assertEquals(0, secondBuffer.remaining());
+        out.limit(out.position());
+        out.position(20);
+
+        first.merge(second);
+        assertEquals(serialize(first, false), out);
+        assertEquals(first, HyperLogLogUtils.deserializeHLL(out));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeSerializedBuffersDifferentP() {
+    HyperLogLog first = newHLL(14, EncodingType.DENSE, true, sourceSize, SEED);
+    HyperLogLog second = newHLL(12, EncodingType.DENSE, true, sourceSize, SEED);
+    HyperLogLogUtils.mergeSerialized(serialize(first, false), serialize(second, false),
+        ByteBuffer.allocate(HyperLogLogUtils.getMaxSerializedSize(14, 8)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeSerializedBuffersSparse() {
+    HyperLogLog first = newHLL(14, EncodingType.SPARSE, true, 10, SEED);
+    HyperLogLogUtils.mergeSerialized(serialize(first, false), serialize(first, false),
+        ByteBuffer.allocate(HyperLogLogUtils.getMaxSerializedSize(14, 8)));
+  }
+}
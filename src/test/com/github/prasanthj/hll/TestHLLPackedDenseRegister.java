@@ -0,0 +1,153 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static com.github.prasanthj.hll.DenseRegisterTestUtils.addRandomHashcodes;
+import static com.github.prasanthj.hll.DenseRegisterTestUtils.assertRegisterEquals;
+import static com.github.prasanthj.hll.DenseRegisterTestUtils.assertSameHyperLogLog;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestHLLPackedDenseRegister {
+
+  @Test
+  public void testSameAsDenseRegister() {
+    Random rand = new Random(123);
+    HLLDenseRegister dense = new HLLDenseRegister(14);
+    HLLPackedDenseRegister packed = new HLLPackedDenseRegister(14);
+    addRandomHashcodes(rand, 100_000, dense, packed);
+    assertRegisterEquals(dense, packed);
+    assertEquals(12 * 1024, packed.getSizeInBytes());
+  }
+
+  @Test
+  public void testSetAcrossWordBoundary() {
+    // registers 10 and 21 span two longs
+    HLLPackedDenseRegister packed = new HLLPackedDenseRegister(4);
+    for (int i = 0; i < packed.size(); i++) {
+      packed.set(i, (byte) (63 - i));
+    }
+    for (int i = 0; i < packed.size(); i++) {
+      assertEquals(63 - i, packed.get(i));
+    }
+
+    packed = new HLLPackedDenseRegister(6);
+    packed.set(10, (byte) 63);
+    assertEquals(0, packed.get(9));
+    assertEquals(63, packed.get(10));
+    assertEquals(0, packed.get(11));
+    packed.set(9, (byte) 1);
+    packed.set(11, (byte) 1);
+    assertEquals(1, packed.get(9));
+    assertEquals(63, packed.get(10));
+    assertEquals(1, packed.get(11));
+    packed.set(21, (byte) 62);
+    assertEquals(62, packed.get(21));
+    assertEquals(0, packed.get(20));
+    assertEquals(0, packed.get(22));
+    assertEquals(packed.size() - 4, packed.getNumZeroes());
+  }
+
+  @Test
+  public void testSetValueClamped() {
+    // hashcode with all 64 - p bits zero has register value 65
+    HLLPackedDenseRegister packed = new HLLPackedDenseRegister(4);
+    assertTrue(packed.add(0L));
+    assertEquals(63, packed.get(0));
+    assertEquals(63, packed.getMaxRegisterValue());
+    assertFalse(packed.set(0, (byte) 64));
+
+    HyperLogLog hll6 = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE)
+        .setDenseRegisterType(HyperLogLog.DenseRegisterType.HLL6).build();
+    hll6.add(0L);
+    assertEquals(1, hll6.count());
+  }
+
+  @Test
+  public void testMergeWords() {
+    // random register values, so that every field compare case is covered
+    Random rand = new Random(11);
+    for (int p : new int[] { 4, 5, 10 }) {
+      HLLDenseRegister dense = new HLLDenseRegister(p);
+      HLLPackedDenseRegister packed = new HLLPackedDenseRegister(p);
+      HLLPackedDenseRegister other = new HLLPackedDenseRegister(p);
+      for (int i = 0; i < packed.size(); i++) {
+        byte value = (byte) rand.nextInt(64);
+        dense.set(i, value);
+        packed.set(i, value);
+        other.set(i, (byte) rand.nextInt(64));
+      }
+      dense.merge(other);
+      packed.merge(other);
+      assertRegisterEquals(dense, packed);
+    }
+  }
+
+  @Test
+  public void testMerge() {
+    Random rand = new Random(42);
+    HLLDenseRegister dense1 = new HLLDenseRegister(10);
+    HLLDenseRegister dense2 = new HLLDenseRegister(10);
+    HLLPackedDenseRegister packed1 = new HLLPackedDenseRegister(10);
+    HLLPackedDenseRegister packed2 = new HLLPackedDenseRegister(10);
+    addRandomHashcodes(rand, 5000, dense1, packed1);
+    addRandomHashcodes(rand, 5000, dense2, packed2);
+
+    HLLPackedDenseRegister packed3 = new HLLPackedDenseRegister(10);
+    packed3.merge(packed2);
+    packed3.merge(dense1);
+    packed1.merge(packed2);
+    dense1.merge(dense2);
+    assertRegisterEquals(dense1, packed1);
+    assertRegisterEquals(dense1, packed3);
+
+    // merging packed register into byte register
+    dense2.merge(packed1);
+    assertRegisterEquals(dense2, packed1);
+  }
+
+  @Test
+  public void testHLL6SameAsHLL8() throws IOException {
+    Random rand = new Random(7);
+    HyperLogLog hll8 = HyperLogLog.builder().build();
+    HyperLogLog hll6 = HyperLogLog.builder()
+        .setDenseRegisterType(HyperLogLog.DenseRegisterType.HLL6).build();
+    for (int i = 0; i < 100_000; i++) {
+      long val = rand.nextLong();
+      hll8.addLong(val);
+      hll6.addLong(val);
+    }
+    assertEquals(HyperLogLog.EncodingType.DENSE, hll6.getEncoding());
+    assertEquals(HLLPackedDenseRegister.class, hll6.getDenseRegister().getClass());
+    assertEquals(hll8.getHLLDenseRegister(), hll6.getHLLDenseRegister());
+    assertSameHyperLogLog(hll8, hll6);
+
+    ByteArrayOutputStream out6 = new ByteArrayOutputStream();
+    HyperLogLogUtils.serializeHLL(out6, hll6);
+    HyperLogLog deserialized = HyperLogLogUtils
+        .deserializeHLL(new ByteArrayInputStream(out6.toByteArray()));
+    assertEquals(hll6.count(), deserialized.count());
+  }
+}
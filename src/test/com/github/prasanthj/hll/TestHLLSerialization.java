@@ -18,15 +18,21 @@
 
 package com.github.prasanthj.hll;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import com.github.prasanthj.hll.HyperLogLog.EncodingType;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -265,4 +271,98 @@ public class TestHLLSerialization {
     assertEquals(hashset.size(), hll.count(), delta);
     assertEquals(hashset.size(), deserializedHLL.count(), delta);
   }
+
+  private void checkByteBufferSerialization(HyperLogLog hll) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    HyperLogLogUtils.serializeHLL(bos, hll);
+    byte[] streamBytes = bos.toByteArray();
+    int serializedSize = HyperLogLogUtils.getSerializedSize(hll);
+    assertEquals(streamBytes.length, serializedSize);
+
+    // serialized bytes do not depend on the byte order of the buffers
+    for (ByteOrder writeOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+        ByteOrder.LITTLE_ENDIAN }) {
+      // serialize at a non-zero position with trailing bytes
+      ByteBuffer buffer = ByteBuffer.allocate(serializedSize + 10).order(writeOrder);
+      buffer.position(3);
+      HyperLogLogUtils.serializeHLL(buffer, hll);
+      assertEquals(3 + serializedSize, buffer.position());
+      assertArrayEquals(streamBytes,
+          Arrays.copyOfRange(buffer.array(), 3, 3 + serializedSize));
+
+      for (ByteOrder readOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+          ByteOrder.LITTLE_ENDIAN }) {
+        buffer.order(readOrder);
+        buffer.position(3);
+        assertEquals(hll.count(), HyperLogLogUtils.getEstimatedCountFromSerializedHLL(buffer));
+        assertEquals(3, buffer.position());
+        HyperLogLog deserializedHLL = HyperLogLogUtils.deserializeHLL(buffer);
+        assertEquals(3 + serializedSize, buffer.position());
+        assertEquals(hll, deserializedHLL);
+        assertEquals(hll.count(), deserializedHLL.count());
+      }
+    }
+
+    // both deserializers read the same bytes
+    assertEquals(hll, HyperLogLogUtils.deserializeHLL(new ByteArrayInputStream(streamBytes)));
+  }
+
+  @Test
+  public void testHLLByteBufferSerialization() throws IOException {
+    HyperLogLog sparse = HyperLogLog.builder().setEncoding(EncodingType.SPARSE).build();
+    HyperLogLog dense = HyperLogLog.builder().setEncoding(EncodingType.DENSE).build();
+    HyperLogLog unpacked = HyperLogLog.builder().setEncoding(EncodingType.DENSE)
+        .enableBitPacking(false).build();
+    Random rand = new Random(SEED);
+    for (int i = 0; i < size; i++) {
+      long val = rand.nextLong();
+      sparse.addLong(val);
+      dense.addLong(val);
+      unpacked.addLong(val);
+    }
+    checkByteBufferSerialization(sparse);
+    checkByteBufferSerialization(dense);
+    checkByteBufferSerialization(unpacked);
+  }
+
+  @Test
+  public void testHLLBitpackedRegisterLayout() throws IOException {
+    // registers are packed most significant bit first
+    HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(4)
+        .setEncoding(EncodingType.DENSE).build();
+    byte[] register = new byte[16];
+    Random rand = new Random(SEED + size);
+    for (int i = 0; i < register.length; i++) {
+      register[i] = (byte) (1 + rand.nextInt(31));
+    }
+    register[0] = 63;
+    hll.setHLLDenseRegister(register);
+    ByteBuffer buffer = ByteBuffer.allocate(HyperLogLogUtils.getSerializedSize(hll));
+    HyperLogLogUtils.serializeHLL(buffer, hll);
+
+    int offset = buffer.position() - 12;
+    for (int i = 0; i < register.length; i++) {
+      int value = 0;
+      for (int bit = i * 6; bit < (i + 1) * 6; bit++) {
+        int b = buffer.get(offset + (bit >>> 3)) >>> (7 - (bit & 7));
+        value = (value << 1) | (b & 1);
+      }
+      assertEquals(register[i], value);
+    }
+  }
+
+  @Test(expected = BufferOverflowException.class)
+  public void testHLLByteBufferOverflow() {
+    HyperLogLog hll = HyperLogLog.builder().build();
+    for (int i = 0; i < size; i++) {
+      hll.addLong(i);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(HyperLogLogUtils.getSerializedSize(hll) - 1);
+    HyperLogLogUtils.serializeHLL(buffer, hll);
+  }
+
+  @Test
+  public void testHLLEmptyDenseSerialization() throws IOException {
+    checkByteBufferSerialization(HyperLogLog.builder().setEncoding(EncodingType.DENSE).build());
+  }
 }
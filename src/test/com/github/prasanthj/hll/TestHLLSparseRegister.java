@@ -0,0 +1,185 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class TestHLLSparseRegister {
+
+  @Test
+  public void testSetOutOfOrder() {
+    Random rand = new Random(123);
+    HLLSparseRegister reg = new HLLSparseRegister(14, 25, 6);
+    Map<Integer, Byte> expected = new TreeMap<>();
+    for (int i = 0; i < 10_000; i++) {
+      int key = rand.nextInt(5000);
+      byte value = (byte) (1 + rand.nextInt(50));
+      Byte current = expected.get(key);
+      boolean larger = current == null || value > current;
+      if (larger) {
+        expected.put(key, value);
+      }
+      assertEquals(larger, reg.set(key, value));
+    }
+    assertEquals(expected.size(), reg.getNumEntries());
+    assertEquals(expected, reg.getSparseMap());
+  }
+
+  @Test
+  public void testMerge() {
+    Random rand = new Random(123);
+    HLLSparseRegister reg = new HLLSparseRegister(14, 25, 6);
+    HLLSparseRegister other = new HLLSparseRegister(14, 25, 6);
+    Map<Integer, Byte> expected = new TreeMap<>();
+    for (int i = 0; i < 3000; i++) {
+      int key = rand.nextInt(4000);
+      byte value = (byte) (1 + rand.nextInt(50));
+      HLLSparseRegister target = rand.nextBoolean() ? reg : other;
+      target.set(key, value);
+      Byte current = expected.get(key);
+      if (current == null || value > current) {
+        expected.put(key, value);
+      }
+    }
+
+    reg.merge(other);
+    assertEquals(expected, reg.getSparseMap());
+
+    // merging again should not update anything
+    HLLSparseRegister copy = new HLLSparseRegister(14, 25, 6);
+    copy.merge(reg);
+    reg.merge(other);
+    assertEquals(copy, reg);
+  }
+
+  @Test
+  public void testSetIgnoresSmallerValues() {
+    HLLSparseRegister reg = new HLLSparseRegister(14, 25, 6);
+    assertTrue(reg.set(10, (byte) 5));
+    assertFalse(reg.set(10, (byte) 3));
+    assertFalse(reg.set(10, (byte) 5));
+    assertFalse(reg.set(20, (byte) 0));
+    assertEquals(1, reg.getNumEntries());
+    assertEquals(5, reg.getSparseMap().get(10));
+  }
+
+  @Test
+  public void testTempListFlush() {
+    Random rand = new Random(123);
+    HLLSparseRegister reg = new HLLSparseRegister(14, 25, 6);
+    HLLSparseRegister expected = new HLLSparseRegister(14, 25, 6);
+    // fill the temp list with hashcodes having few distinct register indices, so
+    // that the flush has to retain the largest value of duplicate indices
+    for (int i = 0; i < HLLConstants.TEMP_LIST_DEFAULT_SIZE; i++) {
+      long hashcode = rand.nextLong();
+      if (i % 2 == 0) {
+        hashcode = (hashcode & ~0x1ffffffL) | rand.nextInt(100);
+      }
+      reg.add(hashcode);
+
+      // single entry flushes
+      expected.add(hashcode);
+      expected.getNumEntries();
+    }
+    assertEquals(expected.getSparseMap(), reg.getSparseMap());
+  }
+
+  @Test
+  public void testAddDoesNotDropHashcodes() {
+    Random rand = new Random(123);
+    for (int tempListSize : new int[] { 1, 7, 64, HLLConstants.TEMP_LIST_DEFAULT_SIZE }) {
+      HLLSparseRegister reg = new HLLSparseRegister(14, 25, 6, tempListSize);
+      Set<Integer> keys = new HashSet<>();
+      for (int i = 0; i < 5000; i++) {
+        long hashcode = rand.nextLong();
+        keys.add(reg.encodeHash(hashcode) & 0x1ffffff);
+        reg.add(hashcode);
+      }
+      assertEquals(keys.size(), reg.getNumEntries());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidTempListSize() {
+    HyperLogLog.builder().setSparseTempListSize(0).build();
+  }
+
+  @Test
+  public void testForEachAndEntryIterator() {
+    Random rand = new Random(123);
+    HLLSparseRegister reg = new HLLSparseRegister(14, 25, 6, 64);
+    for (int i = 0; i < 1000; i++) {
+      reg.add(rand.nextLong());
+    }
+
+    // forEach merges the temp list before iterating
+    final Map<Integer, Byte> actual = new TreeMap<>();
+    reg.forEach((key, value) -> assertEquals(null, actual.put(key, value)));
+    Map<Integer, Byte> expected = reg.getSparseMap();
+    assertEquals(expected, actual);
+
+    int numEntries = 0;
+    int prevKey = -1;
+    for (PrimitiveIterator.OfInt it = reg.entryIterator(); it.hasNext();) {
+      int entry = it.nextInt();
+      int key = entry >>> 6;
+      assertTrue(key > prevKey);
+      assertEquals(expected.get(key).byteValue(), (byte) (entry & 0x3f));
+      prevKey = key;
+      numEntries++;
+    }
+    assertEquals(expected.size(), numEntries);
+  }
+
+  @Test
+  public void testMergeMaxEntries() {
+    Random rand = new Random(123);
+    for (int maxEntries : new int[] { 0, 10, 100, 190, 200, 1000 }) {
+      HLLSparseRegister reg = new HLLSparseRegister(14, 25, 6);
+      HLLSparseRegister other = new HLLSparseRegister(14, 25, 6);
+      Map<Integer, Byte> expected = new TreeMap<>();
+      for (int i = 0; i < 100; i++) {
+        int key = rand.nextInt(150);
+        byte value = (byte) (1 + rand.nextInt(50));
+        reg.set(key, value);
+        expected.merge(key, value, (a, b) -> a > b ? a : b);
+      }
+      Map<Integer, Byte> before = reg.getSparseMap();
+      for (int i = 0; i < 100; i++) {
+        int key = rand.nextInt(150);
+        byte value = (byte) (1 + rand.nextInt(50));
+        other.set(key, value);
+        expected.merge(key, value, (a, b) -> a > b ? a : b);
+      }
+
+      boolean merged = reg.merge(other, maxEntries);
+      assertEquals(expected.size() <= maxEntries, merged);
+      assertEquals(merged ? expected : before, reg.getSparseMap());
+    }
+  }
+}
@@ -19,6 +19,16 @@ package com.github.prasanthj.hll;
 import static org.junit.Assert.assertEquals;
 import com.github.prasanthj.hll.HyperLogLog.EncodingType;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 
 public class TestHyperLogLog {
@@ -331,4 +341,197 @@ public class TestHyperLogLog {
     p14HLL.squash(p10HLL.getNumRegisterIndexBits());
     assertEquals((double) size, p14HLL.count(), longRangeTolerance * size / 100.0);
   }
+
+  @Test
+  public void testHLLConcurrentAddDistinctInstances() throws Exception {
+    final int numThreads = 8;
+    final int size = 100_000;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<HyperLogLog>> futures = new ArrayList<>();
+      for (int t = 0; t < numThreads; t++) {
+        final int offset = t * size;
+        futures.add(executor.submit(() -> populate(offset, size)));
+      }
+
+      // sketches built concurrently on different threads should be identical to
+      // sketches built sequentially
+      for (int t = 0; t < numThreads; t++) {
+        assertEquals(populate(t * size, size), futures.get(t).get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static HyperLogLog populate(int offset, int size) {
+    HyperLogLog hll = HyperLogLog.builder().setEncoding(EncodingType.SPARSE).build();
+    for (int i = offset; i < offset + size; i++) {
+      hll.addLong(i);
+      hll.addInt(i);
+      hll.addShort((short) i);
+      hll.addDouble(i);
+    }
+    return hll;
+  }
+
+  @Test
+  public void testHLLAddAll() {
+    Random rand = new Random(123);
+    // sizes below, around and above the sparse to dense switch threshold
+    for (int size : new int[] { 0, 10, 2000, 3000, 100_000 }) {
+      for (EncodingType enc : EncodingType.values()) {
+        long[] longs = new long[size];
+        int[] ints = new int[size];
+        String[] strings = new String[size];
+        for (int i = 0; i < size; i++) {
+          longs[i] = rand.nextLong();
+          ints[i] = rand.nextInt();
+          strings[i] = Long.toString(longs[i]);
+        }
+
+        HyperLogLog expected = HyperLogLog.builder().setEncoding(enc).build();
+        HyperLogLog hll = HyperLogLog.builder().setEncoding(enc).build();
+        for (long val : longs) {
+          expected.add(val);
+        }
+        hll.addAll(longs);
+        assertEquals(expected, hll);
+
+        for (long val : longs) {
+          expected.addLong(val);
+        }
+        hll.addAllLongs(longs);
+        assertEquals(expected, hll);
+
+        for (int val : ints) {
+          expected.addInt(val);
+        }
+        hll.addAllInts(ints);
+        assertEquals(expected, hll);
+
+        for (String val : strings) {
+          expected.addString(val);
+        }
+        hll.addAllStrings(strings);
+        assertEquals(expected, hll);
+      }
+    }
+  }
+
+  @Test
+  public void testHLLAddAllRange() {
+    long[] hashcodes = new long[100];
+    for (int i = 0; i < hashcodes.length; i++) {
+      hashcodes[i] = Murmur3.hash64((long) i);
+    }
+    HyperLogLog expected = HyperLogLog.builder().build();
+    for (int i = 10; i < 60; i++) {
+      expected.add(hashcodes[i]);
+    }
+    HyperLogLog hll = HyperLogLog.builder().build();
+    hll.addAll(hashcodes, 10, 50);
+    assertEquals(expected, hll);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testHLLAddAllInvalidRange() {
+    HyperLogLog hll = HyperLogLog.builder().build();
+    hll.addAll(new long[10], 5, 10);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testHLLAddAllOverflowingRange() {
+    HyperLogLog hll = HyperLogLog.builder().build();
+    // offset + length overflows to a negative int
+    hll.addAll(new long[10], 1, Integer.MAX_VALUE);
+  }
+
+  // k nearest neighbor bias lookup of the original implementation, which keys
+  // the raw estimates by their squared distance to the count
+  private static long mapEstimateBias(int p, long count) {
+    double[] rawEstForP = HLLConstants.rawEstimateData[p - 4];
+    Map<Double, Integer> estIndexMap = new TreeMap<>();
+    for (int i = 0; i < rawEstForP.length; i++) {
+      estIndexMap.put(Math.pow(count - rawEstForP[i], 2), i);
+    }
+
+    double[] biasForP = HLLConstants.biasData[p - 4];
+    double biasSum = 0;
+    int kNeighbors = HLLConstants.K_NEAREST_NEIGHBOR;
+    for (Map.Entry<Double, Integer> entry : estIndexMap.entrySet()) {
+      biasSum += biasForP[entry.getValue()];
+      kNeighbors--;
+      if (kNeighbors <= 0) {
+        break;
+      }
+    }
+    return (long) ((biasSum / HLLConstants.K_NEAREST_NEIGHBOR) + 0.5);
+  }
+
+  @Test
+  public void testEstimateBias() {
+    for (int p = 4; p <= 16; p++) {
+      HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p).build();
+      List<Long> counts = new ArrayList<>();
+      // bias correction is applied to counts up to 5m
+      final long maxCount = 5L << p;
+      for (long count = 0; count <= maxCount; count += Math.max(1, maxCount >>> 12)) {
+        counts.add(count);
+      }
+      // counts around (and exactly at, when integral) the midpoints of
+      // adjacent raw estimates, where the neighbors are chosen by tie handling
+      double[] rawEstForP = HLLConstants.rawEstimateData[p - 4].clone();
+      Arrays.sort(rawEstForP);
+      for (int i = 1; i < rawEstForP.length; i++) {
+        double mid = (rawEstForP[i - 1] + rawEstForP[i]) / 2;
+        counts.add((long) Math.floor(mid));
+        counts.add((long) Math.ceil(mid));
+      }
+      for (long count : counts) {
+        assertEquals("p: " + p + " count: " + count, mapEstimateBias(p, count),
+            hll.estimateBias(count));
+      }
+    }
+  }
+
+  @Test
+  public void testHLLSparseMergeSwitchThreshold() {
+    // p = 14 switches to DENSE beyond 2457 sparse entries
+    final int threshold = ((1 << 14) * 6 / 8) / 5;
+    for (int otherSize : new int[] { 0, 100, 1000, 1200, 1300, 1400, 2000, 5000 }) {
+      HyperLogLog hll = HyperLogLog.builder().build();
+      HyperLogLog other = HyperLogLog.builder().build();
+      HyperLogLog dense = HyperLogLog.builder().setEncoding(EncodingType.DENSE).build();
+      Random rand = new Random(otherSize);
+      for (int i = 0; i < 1200; i++) {
+        long val = rand.nextLong();
+        hll.addLong(val);
+        dense.addLong(val);
+      }
+      for (int i = 0; i < otherSize; i++) {
+        long val = rand.nextLong();
+        other.addLong(val);
+        dense.addLong(val);
+      }
+      if (other.getEncoding() == EncodingType.DENSE) {
+        continue;
+      }
+      Map<Integer, Byte> union = new TreeMap<>(hll.getHLLSparseRegister().getSparseMap());
+      for (Map.Entry<Integer, Byte> entry : other.getHLLSparseRegister().getSparseMap()
+          .entrySet()) {
+        union.merge(entry.getKey(), entry.getValue(), (a, b) -> a > b ? a : b);
+      }
+
+      hll.merge(other);
+      if (union.size() > threshold) {
+        assertEquals(EncodingType.DENSE, hll.getEncoding());
+        assertEquals(dense.getDenseRegister(), hll.getDenseRegister());
+      } else {
+        assertEquals(EncodingType.SPARSE, hll.getEncoding());
+        assertEquals(union, hll.getHLLSparseRegister().getSparseMap());
+      }
+      assertEquals(dense.count(), hll.count(), dense.count() * 0.02);
+    }
+  }
 }
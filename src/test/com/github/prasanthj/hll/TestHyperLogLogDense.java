@@ -16,6 +16,7 @@
 
 package com.github.prasanthj.hll;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Arrays;
@@ -78,4 +79,76 @@ public class TestHyperLogLogDense {
     assertEquals((double) hashset.size(), (double) hll.count(), delta);
   }
 
+  @Test
+  public void testRegisterStatsAfterAddAndMerge() {
+    Random rand = new Random(size);
+    HLLDenseRegister reg = new HLLDenseRegister(10);
+    HLLDenseRegister other = new HLLDenseRegister(10);
+    for (int i = 0; i < size; i++) {
+      reg.add(rand.nextLong());
+      other.add(rand.nextLong());
+    }
+    assertRegisterStats(reg);
+    reg.merge(other);
+    assertRegisterStats(reg);
+
+    HLLDenseRegister copy = new HLLDenseRegister(10);
+    copy.setRegister(reg.getRegister().clone());
+    assertRegisterStats(copy);
+  }
+
+  @Test
+  public void testMergeMaxPerRegister() {
+    // register values covering the full 0 - 127 range at every byte position
+    Random rand = new Random(size);
+    byte[] r1 = new byte[1 << 10];
+    byte[] r2 = new byte[1 << 10];
+    byte[] expected = new byte[1 << 10];
+    for (int i = 0; i < r1.length; i++) {
+      r1[i] = (byte) rand.nextInt(128);
+      r2[i] = (byte) (i % 4 == 0 ? r1[i] : rand.nextInt(128));
+      expected[i] = (byte) Math.max(r1[i], r2[i]);
+    }
+    HLLDenseRegister reg = new HLLDenseRegister(10);
+    reg.setRegister(r1);
+    HLLDenseRegister other = new HLLDenseRegister(10);
+    other.setRegister(r2);
+    reg.merge(other);
+    assertArrayEquals(expected, reg.getRegister());
+    assertRegisterStats(reg);
+  }
+
+  @Test
+  public void testMergeFewUpdatedRegisters() {
+    Random rand = new Random(size);
+    HLLDenseRegister reg = new HLLDenseRegister(14);
+    for (int i = 0; i < size; i++) {
+      reg.add(rand.nextLong());
+    }
+    byte[] r2 = reg.getRegister().clone();
+    byte[] expected = reg.getRegister().clone();
+    for (int i = 0; i < 10; i++) {
+      int idx = rand.nextInt(r2.length);
+      r2[idx] = (byte) (expected[idx] + 1);
+      expected[idx] = r2[idx];
+    }
+    HLLDenseRegister other = new HLLDenseRegister(14);
+    other.setRegister(r2);
+    reg.merge(other);
+    assertArrayEquals(expected, reg.getRegister());
+    assertRegisterStats(reg);
+  }
+
+  private static void assertRegisterStats(HLLDenseRegister reg) {
+    int numZeroes = 0;
+    double sum = 0;
+    for (byte b : reg.getRegister()) {
+      if (b == 0) {
+        numZeroes++;
+      }
+      sum += Math.pow(2, -b);
+    }
+    assertEquals(numZeroes, reg.getNumZeroes());
+    assertEquals(sum, reg.getSumInversePow2(), 1e-9);
+  }
 }
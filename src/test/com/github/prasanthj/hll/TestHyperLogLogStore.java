@@ -0,0 +1,212 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+public class TestHyperLogLogStore {
+  private static final String pathPrefix = ".";
+
+  @Rule
+  public TestName testCaseName = new TestName();
+
+  private File testFile() {
+    return new File(pathPrefix + testCaseName.getMethodName() + ".hlls");
+  }
+
+  @After
+  public void close() {
+    File testFile = testFile();
+    if (testFile.exists()) {
+      testFile.delete();
+    }
+  }
+
+  @Test
+  public void testAddAndCount() throws IOException {
+    Random rand = new Random(123);
+    final int numKeys = 8;
+    final int[] sizes = new int[] { 0, 1, 10, 100, 1000, 10000, 100000, 1000000 };
+    HyperLogLog[] expected = new HyperLogLog[numKeys];
+    try (HyperLogLogStore store = HyperLogLogStore.create(testFile(), 14, numKeys)) {
+      for (int key = 0; key < numKeys; key++) {
+        expected[key] = HyperLogLog.builder().setEncoding(HyperLogLog.EncodingType.DENSE).build();
+        for (int i = 0; i < sizes[key]; i++) {
+          long hashcode = Murmur3.hash64(rand.nextLong());
+          expected[key].add(hashcode);
+          store.add(key, hashcode);
+        }
+      }
+      for (int key = 0; key < numKeys; key++) {
+        assertEquals(expected[key].count(), store.count(key));
+        assertEquals(expected[key], store.toHyperLogLog(key));
+      }
+    }
+
+    // sketches are read in place after reopening the store
+    try (HyperLogLogStore store = HyperLogLogStore.open(testFile())) {
+      assertEquals(14, store.getNumRegisterIndexBits());
+      assertEquals(numKeys, store.getNumKeys());
+      for (int key = 0; key < numKeys; key++) {
+        assertEquals(expected[key].count(), store.count(key));
+      }
+    }
+  }
+
+  @Test
+  public void testMerge() throws IOException {
+    Random rand = new Random(42);
+    HyperLogLog sparse = HyperLogLog.builder().setNumRegisterIndexBits(10).build();
+    HyperLogLog dense = HyperLogLog.builder().setNumRegisterIndexBits(12)
+        .setEncoding(HyperLogLog.EncodingType.DENSE).build();
+    HyperLogLog expected = HyperLogLog.builder().setNumRegisterIndexBits(10)
+        .setEncoding(HyperLogLog.EncodingType.DENSE).build();
+    for (int i = 0; i < 100; i++) {
+      long val = rand.nextLong();
+      sparse.addLong(val);
+      expected.addLong(val);
+    }
+    for (int i = 0; i < 50000; i++) {
+      long val = rand.nextLong();
+      dense.addLong(val);
+      expected.addLong(val);
+    }
+
+    try (HyperLogLogStore store = HyperLogLogStore.create(testFile(), 10, 3)) {
+      store.merge(1, sparse);
+      // larger p is squashed
+      store.merge(1, dense);
+      assertEquals(expected.count(), store.count(1));
+      assertEquals(expected, store.toHyperLogLog(1));
+      assertEquals(0, store.count(0));
+      assertEquals(0, store.count(2));
+    }
+  }
+
+  @Test
+  public void testManySegments() throws IOException {
+    // 4 keys per mapped segment
+    final long numKeys = 10;
+    Random rand = new Random(7);
+    HyperLogLog[] expected = new HyperLogLog[(int) numKeys];
+    try (HyperLogLogStore store = HyperLogLogStore.create(testFile(), 10, numKeys, 12)) {
+      for (int key = 0; key < numKeys; key++) {
+        expected[key] = HyperLogLog.builder().setNumRegisterIndexBits(10)
+            .setEncoding(HyperLogLog.EncodingType.DENSE).build();
+        for (int i = 0; i < 1000 * key; i++) {
+          long hashcode = rand.nextLong();
+          expected[key].add(hashcode);
+          store.add(key, hashcode);
+        }
+      }
+    }
+
+    // segment size does not matter for reading
+    try (HyperLogLogStore store = HyperLogLogStore.open(testFile())) {
+      for (int key = 0; key < numKeys; key++) {
+        assertEquals(expected[key], store.toHyperLogLog(key));
+      }
+    }
+  }
+
+  @Test
+  public void testKeysSharingCacheSlot() throws IOException {
+    // keys 1 and 1025 evict each other from the register cache
+    final long[] keys = new long[] { 1, 1025, 2049 };
+    Random rand = new Random(11);
+    HyperLogLog[] expected = new HyperLogLog[keys.length];
+    try (HyperLogLogStore store = HyperLogLogStore.create(testFile(), 8, 3000)) {
+      for (int k = 0; k < keys.length; k++) {
+        expected[k] = HyperLogLog.builder().setNumRegisterIndexBits(8)
+            .setEncoding(HyperLogLog.EncodingType.DENSE).build();
+      }
+      for (int i = 0; i < 30000; i++) {
+        int k = i % keys.length;
+        long hashcode = rand.nextLong();
+        expected[k].add(hashcode);
+        store.add(keys[k], hashcode);
+        if (i % 1000 == 0) {
+          assertEquals(expected[k].count(), store.count(keys[k]));
+        }
+      }
+      for (int k = 0; k < keys.length; k++) {
+        assertEquals(expected[k].count(), store.count(keys[k]));
+        assertEquals(expected[k], store.toHyperLogLog(keys[k]));
+      }
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testInvalidKey() throws IOException {
+    try (HyperLogLogStore store = HyperLogLogStore.create(testFile(), 10, 3)) {
+      store.add(3, 1L);
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testInvalidKeyCount() throws IOException {
+    try (HyperLogLogStore store = HyperLogLogStore.create(testFile(), 10, 3)) {
+      store.count(3);
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testNegativeKeyAdd() throws IOException {
+    try (HyperLogLogStore store = HyperLogLogStore.create(testFile(), 10, 3)) {
+      store.add(-1, 1L);
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testNegativeKeyCount() throws IOException {
+    try (HyperLogLogStore store = HyperLogLogStore.create(testFile(), 10, 3)) {
+      store.count(-1);
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testNegativeKeyMerge() throws IOException {
+    try (HyperLogLogStore store = HyperLogLogStore.create(testFile(), 10, 3)) {
+      store.merge(-1, HyperLogLog.builder().setNumRegisterIndexBits(10).build());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMergeSmallerP() throws IOException {
+    try (HyperLogLogStore store = HyperLogLogStore.create(testFile(), 14, 1)) {
+      store.merge(0, HyperLogLog.builder().setNumRegisterIndexBits(10).build());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOpenInvalidFile() throws IOException {
+    try (FileOutputStream out = new FileOutputStream(testFile())) {
+      out.write(new byte[64]);
+    }
+    HyperLogLogStore.open(testFile());
+  }
+}
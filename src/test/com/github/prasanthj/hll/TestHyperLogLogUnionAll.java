@@ -0,0 +1,201 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import com.github.prasanthj.hll.HyperLogLog.EncodingType;
+
+@RunWith(Parameterized.class)
+public class TestHyperLogLogUnionAll {
+  private final int numSketches;
+  private final int size;
+
+  @Parameterized.Parameters
+  public static Collection<Object[]> data() {
+    return Arrays.asList(new Object[][] {
+      { 1, 10 }, { 2, 100 }, { 10, 10 }, { 10, 200 }, { 100, 20 }, { 500, 5 }, { 500, 50 },
+      { 50, 5000 }
+    });
+  }
+
+  public TestHyperLogLogUnionAll(int numSketches, int size) {
+    this.numSketches = numSketches;
+    this.size = size;
+  }
+
+  private List<HyperLogLog> newSketches(int p, EncodingType encoding) {
+    Random rand = new Random(numSketches * size);
+    List<HyperLogLog> hlls = new ArrayList<>();
+    for (int i = 0; i < numSketches; i++) {
+      HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(encoding)
+          .build();
+      // sketches overlap with the previous sketch
+      for (int j = 0; j < size; j++) {
+        hll.addLong(rand.nextInt(numSketches * size));
+      }
+      hlls.add(hll);
+    }
+    return hlls;
+  }
+
+  private static HyperLogLog mergeAll(int p, List<HyperLogLog> hlls) {
+    HyperLogLog expected = HyperLogLog.builder().setNumRegisterIndexBits(p).build();
+    for (HyperLogLog hll : hlls) {
+      expected.merge(hll);
+    }
+    return expected;
+  }
+
+  @Test
+  public void testUnionAllSparse() {
+    List<HyperLogLog> hlls = newSketches(14, EncodingType.SPARSE);
+    HyperLogLog expected = mergeAll(14, hlls);
+    HyperLogLog union = HyperLogLog.unionAll(hlls);
+    assertEquals(expected.getEncoding(), union.getEncoding());
+    assertEquals(expected, union);
+    assertEquals(expected.count(), union.count());
+  }
+
+  @Test
+  public void testUnionAllMixed() {
+    List<HyperLogLog> hlls = newSketches(14, EncodingType.SPARSE);
+    hlls.addAll(newSketches(14, EncodingType.DENSE).subList(0, 1));
+    hlls.addAll(newSketches(16, EncodingType.SPARSE).subList(0, 1));
+    Collections.shuffle(hlls, new Random(size));
+    HyperLogLog expected = mergeAll(14, hlls);
+    HyperLogLog union = HyperLogLog.unionAll(hlls);
+    assertEquals(EncodingType.DENSE, union.getEncoding());
+    assertEquals(expected, union);
+  }
+
+  @Test
+  public void testUnionAllSmallerP() {
+    List<HyperLogLog> hlls = newSketches(14, EncodingType.SPARSE);
+    hlls.add(HyperLogLog.builder().setNumRegisterIndexBits(10).build());
+    HyperLogLog expected = mergeAll(10, hlls);
+    HyperLogLog union = HyperLogLog.unionAll(hlls);
+    assertEquals(10, union.getNumRegisterIndexBits());
+    assertEquals(expected, union);
+  }
+
+  @Test
+  public void testUnionAllDoesNotModifyInputs() {
+    List<HyperLogLog> hlls = newSketches(14, EncodingType.SPARSE);
+    List<HyperLogLog> copies = newSketches(14, EncodingType.SPARSE);
+    HyperLogLog.unionAll(hlls);
+    assertEquals(copies, hlls);
+  }
+
+  @Test
+  public void testParallelUnion() {
+    List<HyperLogLog> hlls = newSketches(14, EncodingType.SPARSE);
+    hlls.addAll(newSketches(16, EncodingType.SPARSE));
+    Collections.shuffle(hlls, new Random(size));
+    HyperLogLog expected = mergeAll(14, hlls);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      HyperLogLog union = HyperLogLog.parallelUnion(hlls, pool);
+      assertEquals(expected, union);
+      assertEquals(HyperLogLog.unionAll(hlls), union);
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(expected, HyperLogLog.parallelUnion(hlls));
+  }
+
+  @Test
+  public void testParallelUnionSmallerP() {
+    List<HyperLogLog> hlls = newSketches(14, EncodingType.SPARSE);
+    hlls.add(HyperLogLog.builder().setNumRegisterIndexBits(10).build());
+    HyperLogLog expected = mergeAll(10, hlls);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      // every accumulator has the smallest p, not only the one of the last leaf
+      HyperLogLog union = HyperLogLog.parallelUnion(hlls, pool);
+      assertEquals(10, union.getNumRegisterIndexBits());
+      assertEquals(expected, union);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testParallelMerge() {
+    List<HyperLogLog> hlls = newSketches(14, EncodingType.DENSE);
+    hlls.addAll(newSketches(14, EncodingType.SPARSE).subList(0, 1));
+    hlls.addAll(newSketches(16, EncodingType.DENSE).subList(0, 1));
+    Collections.shuffle(hlls, new Random(size));
+    HyperLogLog expected = mergeAll(14, hlls);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      HyperLogLog target = HyperLogLog.builder().build();
+      target.parallelMerge(hlls, pool);
+      assertEquals(EncodingType.DENSE, target.getEncoding());
+      assertEquals(expected, target);
+      assertEquals(expected.count(), target.count());
+
+      // merging again does not change the target
+      target.parallelMerge(hlls, pool);
+      assertEquals(expected.count(), target.count());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testMergeRegisterRanges() {
+    HLLDenseRegister expected = new HLLDenseRegister(14);
+    HLLDenseRegister target = new HLLDenseRegister(14);
+    List<HLLDenseRegister> registers = new ArrayList<>();
+    for (HyperLogLog hll : newSketches(14, EncodingType.DENSE)) {
+      HLLDenseRegister register = hll.getHLLDenseRegister();
+      expected.merge(register);
+      registers.add(register);
+    }
+    ForkJoinPool pool = new ForkJoinPool(16);
+    try {
+      target.merge(registers, pool);
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(expected, target);
+    assertEquals(expected.getMaxRegisterValue(), target.getMaxRegisterValue());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParallelUnionEmpty() {
+    HyperLogLog.parallelUnion(Collections.<HyperLogLog>emptyList());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnionAllEmpty() {
+    HyperLogLog.unionAll(Collections.<HyperLogLog>emptyList());
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.prasanthj.hll.HyperLogLog.EncodingType;
+
+public class TestHyperLogLogView {
+
+  private static HyperLogLog newHLL(int p, EncodingType encoding, int size) {
+    HyperLogLog hll = HyperLogLog.builder().setNumRegisterIndexBits(p).setEncoding(encoding)
+        .build();
+    Random rand = new Random(size);
+    for (int i = 0; i < size; i++) {
+      hll.addLong(rand.nextLong());
+    }
+    return hll;
+  }
+
+  private static ByteBuffer serialize(HyperLogLog hll) {
+    ByteBuffer buffer = ByteBuffer.allocate(HyperLogLogUtils.getSerializedSize(hll) + 5);
+    buffer.position(5);
+    HyperLogLogUtils.serializeHLL(buffer, hll);
+    buffer.position(5);
+    return buffer;
+  }
+
+  @Test
+  public void testHeader() {
+    for (EncodingType encoding : EncodingType.values()) {
+      for (int size : new int[] { 0, 10, 1000, 100000 }) {
+        HyperLogLog hll = newHLL(12, encoding, size);
+        ByteBuffer buffer = serialize(hll);
+        HyperLogLogView view = new HyperLogLogView(buffer);
+        assertEquals(5, buffer.position());
+        assertEquals(hll.count(), view.count());
+        assertEquals(12, view.getNumRegisterIndexBits());
+        assertEquals(hll.getEncoding(), view.getEncoding());
+        assertEquals(hll, view.toHyperLogLog());
+      }
+    }
+  }
+
+  @Test
+  public void testHeaderIsReadOnlyOnce() {
+    HyperLogLog hll = newHLL(14, EncodingType.DENSE, 1000);
+    ByteBuffer buffer = serialize(hll);
+    HyperLogLogView view = new HyperLogLogView(buffer);
+
+    // corrupt registers are not read until needed
+    buffer.put(buffer.limit() - 1, (byte) 0xff);
+    assertEquals(hll.count(), view.count());
+    assertEquals(EncodingType.DENSE, view.getEncoding());
+    assertEquals(4, view.getBitWidth());
+  }
+
+  @Test
+  public void testMergeTo() {
+    for (EncodingType encoding : EncodingType.values()) {
+      HyperLogLog source = newHLL(14, encoding, 5000);
+      HyperLogLogView view = new HyperLogLogView(serialize(source));
+      HyperLogLog target = newHLL(12, EncodingType.SPARSE, 100);
+      HyperLogLog expected = newHLL(12, EncodingType.SPARSE, 100);
+      expected.merge(source);
+      view.mergeTo(target);
+      assertEquals(expected, target);
+
+      // view can be merged again
+      view.mergeTo(target);
+      assertEquals(expected, target);
+    }
+  }
+
+  @Test
+  public void testToHyperLogLogIsMutableCopy() {
+    HyperLogLog hll = newHLL(12, EncodingType.SPARSE, 100);
+    HyperLogLogView view = new HyperLogLogView(serialize(hll));
+    HyperLogLog copy = view.toHyperLogLog();
+    assertNotSame(copy, view.toHyperLogLog());
+    copy.addLong(-1L);
+    assertEquals(hll, view.toHyperLogLog());
+    assertEquals(hll.count(), view.count());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidBytes() {
+    new HyperLogLogView(new byte[] { 'H', 'L', 'X', 0, 0 });
+  }
+}
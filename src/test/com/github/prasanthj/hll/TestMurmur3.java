@@ -184,4 +184,31 @@ public class TestMurmur3 {
       assertEquals(gl2, m2);
     }
   }
+
+  @Test
+  public void testHashCodesM3_64_primitives() {
+    int seed = 123;
+    Random rand = new Random(seed);
+    for (int i = 0; i < 1000; i++) {
+      long lval = rand.nextLong();
+      byte[] data = ByteBuffer.allocate(8).putLong(lval).array();
+      assertEquals(Murmur3.hash64(data), Murmur3.hash64(lval));
+
+      int ival = rand.nextInt();
+      data = ByteBuffer.allocate(4).putInt(ival).array();
+      assertEquals(Murmur3.hash64(data), Murmur3.hash64(ival));
+
+      short sval = (short) rand.nextInt();
+      data = ByteBuffer.allocate(2).putShort(sval).array();
+      assertEquals(Murmur3.hash64(data), Murmur3.hash64(sval));
+
+      byte bval = (byte) rand.nextInt();
+      data = new byte[] { bval };
+      assertEquals(Murmur3.hash64(data), Murmur3.hash64(bval));
+
+      double dval = rand.nextDouble();
+      data = ByteBuffer.allocate(8).putDouble(dval).array();
+      assertEquals(Murmur3.hash64(data), Murmur3.hash64(Double.doubleToRawLongBits(dval)));
+    }
+  }
 }
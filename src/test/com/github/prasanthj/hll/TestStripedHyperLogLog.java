@@ -0,0 +1,157 @@
+/**
+ * Copyright 2017 Prasanth Jayachandran
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.prasanthj.hll;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(value = Parameterized.class)
+public class TestStripedHyperLogLog {
+  private static final int NUM_THREADS = 8;
+
+  private int size;
+
+  public TestStripedHyperLogLog(int n) {
+    this.size = n;
+  }
+
+  @Parameters
+  public static Collection<Object[]> data() {
+    Object[][] data = new Object[][] { { 2 }, { 1000 }, { 100000 } };
+    return Arrays.asList(data);
+  }
+
+  @Test
+  public void testConcurrentAdd() throws Exception {
+    HyperLogLog.HyperLogLogBuilder builder = HyperLogLog.builder()
+        .setEncoding(HyperLogLog.EncodingType.DENSE);
+    final StripedHyperLogLog striped = new StripedHyperLogLog(builder, 4);
+    HyperLogLog expected = builder.build();
+    for (int i = 0; i < size; i++) {
+      expected.addLong(i);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < NUM_THREADS; t++) {
+        final int thread = t;
+        futures.add(executor.submit(() -> {
+          for (int i = thread; i < size; i += NUM_THREADS) {
+            striped.addLong(i);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(expected.count(), striped.count());
+    assertArrayEquals(serialize(expected), serialize(striped.toHyperLogLog()));
+  }
+
+  @Test
+  public void testMerge() {
+    StripedHyperLogLog striped = new StripedHyperLogLog(HyperLogLog.builder());
+    HyperLogLog other = HyperLogLog.builder().build();
+    HyperLogLog expected = HyperLogLog.builder().build();
+    for (int i = 0; i < size; i++) {
+      striped.addInt(i);
+      other.addInt(size + i);
+      expected.addInt(i);
+      expected.addInt(size + i);
+    }
+    striped.merge(other);
+    assertEquals(expected.count(), striped.count());
+  }
+
+  @Test
+  public void testBuilderChangedAfterCreate() {
+    HyperLogLog.HyperLogLogBuilder builder = HyperLogLog.builder();
+    StripedHyperLogLog striped = new StripedHyperLogLog(builder, 2);
+    builder.setNumRegisterIndexBits(10).setEncoding(HyperLogLog.EncodingType.DENSE);
+    for (int i = 0; i < size; i++) {
+      striped.addInt(i);
+    }
+    HyperLogLog result = striped.toHyperLogLog();
+    assertEquals(14, result.getNumRegisterIndexBits());
+  }
+
+  @Test
+  public void testAddValues() throws IOException {
+    StripedHyperLogLog striped = new StripedHyperLogLog(HyperLogLog.builder(), 2);
+    HyperLogLog expected = HyperLogLog.builder().build();
+    for (int i = 0; i < size; i++) {
+      striped.addBoolean(i % 2 == 0);
+      expected.addBoolean(i % 2 == 0);
+      striped.addByte((byte) i);
+      expected.addByte((byte) i);
+      striped.addBytes(new byte[] { (byte) i, (byte) (i >>> 8) });
+      expected.addBytes(new byte[] { (byte) i, (byte) (i >>> 8) });
+      striped.addShort((short) i);
+      expected.addShort((short) i);
+      striped.addInt(i);
+      expected.addInt(i);
+      striped.addLong(i);
+      expected.addLong(i);
+      striped.addFloat(i);
+      expected.addFloat(i);
+      striped.addDouble(i);
+      expected.addDouble(i);
+      striped.addChar((char) i);
+      expected.addChar((char) i);
+      striped.addString(String.valueOf(i));
+      expected.addString(String.valueOf(i));
+      striped.addString(String.valueOf(i), StandardCharsets.UTF_16);
+      expected.addString(String.valueOf(i), StandardCharsets.UTF_16);
+    }
+    assertEquals(expected.count(), striped.count());
+    assertArrayEquals(serialize(expected), serialize(striped.toHyperLogLog()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDenseRegisterBuffer() {
+    new StripedHyperLogLog(HyperLogLog.builder().setDenseRegisterBuffer(
+        ByteBuffer.allocate(1 << 14)), 2);
+  }
+
+  private static byte[] serialize(HyperLogLog hll) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    HyperLogLogUtils.serializeHLL(out, hll);
+    return out.toByteArray();
+  }
+}